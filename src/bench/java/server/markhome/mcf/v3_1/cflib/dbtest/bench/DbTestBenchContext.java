@@ -0,0 +1,136 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest.bench;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTest;
+
+/**
+ * Boots the DbTest Spring context once per benchmark fork.
+ * <p>
+ * By default the benchmarks run against the PostgreSQL database configured in ~/.dbtest.properties.
+ * Run with -Ddbtest.bench.inprocess=true to use an in-process H2 database in PostgreSQL compatibility mode instead,
+ * which is useful for comparing code paths but says nothing about production latency.
+ */
+public final class DbTestBenchContext {
+
+    public static final String INPROCESS_PROPERTY = "dbtest.bench.inprocess";
+
+    private static final AtomicReference<ConfigurableApplicationContext> refContext = new AtomicReference<>(null);
+
+    private DbTestBenchContext() {
+    }
+
+    public static boolean isInProcess() {
+        return Boolean.parseBoolean(System.getProperty(INPROCESS_PROPERTY, "false"));
+    }
+
+    /**
+     * Properties applied on top of DbTest.getMergedProperties() when running in-process.
+     */
+    public static Properties getInProcessOverrides() {
+        Properties overrides = new Properties();
+        String url = "jdbc:h2:mem:dbtestbench;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH;DB_CLOSE_DELAY=-1;INIT=CREATE SCHEMA IF NOT EXISTS secdb\\;CREATE SCHEMA IF NOT EXISTS appdb";
+        for (String prefix : new String[] { "", "secdb.", "appdb." }) {
+            overrides.setProperty(prefix + "jakarta.persistence.jdbc.driver", "org.h2.Driver");
+            overrides.setProperty(prefix + "jakarta.persistence.jdbc.url", url);
+            overrides.setProperty(prefix + "jakarta.persistence.jdbc.user", "sa");
+            overrides.setProperty(prefix + "jakarta.persistence.jdbc.password", "");
+            overrides.setProperty(prefix + "hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+            overrides.setProperty(prefix + "hibernate.hbm2ddl.auto", "create");
+        }
+        return overrides;
+    }
+
+    /**
+     * Starts the context if it is not already running, applying the given overrides to the merged properties first.
+     */
+    public static synchronized ConfigurableApplicationContext start(Properties overrides) {
+        if (refContext.get() == null) {
+            SpringApplication app = DbTest.createApplication();
+            Properties applied = new Properties();
+            if (isInProcess()) {
+                applied.putAll(getInProcessOverrides());
+            }
+            if (overrides != null) {
+                applied.putAll(overrides);
+            }
+            DbTest.getMergedProperties().putAll(applied);
+            System.getProperties().putAll(applied);
+            refContext.compareAndSet(null, app.run());
+        }
+        return refContext.get();
+    }
+
+    public static ConfigurableApplicationContext start() {
+        return start(null);
+    }
+
+    public static <T> T getBean(Class<T> beanClass) {
+        ConfigurableApplicationContext context = refContext.get();
+        if (context == null) {
+            throw new IllegalStateException("DbTestBenchContext.start() has not been invoked");
+        }
+        return context.getBean(beanClass);
+    }
+
+    public static <T> T getBean(String name, Class<T> beanClass) {
+        ConfigurableApplicationContext context = refContext.get();
+        if (context == null) {
+            throw new IllegalStateException("DbTestBenchContext.start() has not been invoked");
+        }
+        return context.getBean(name, beanClass);
+    }
+
+    public static synchronized void stop() {
+        ConfigurableApplicationContext context = refContext.getAndSet(null);
+        if (context != null) {
+            context.close();
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest.bench;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import server.markhome.mcf.v3_1.cflib.dbtest.appdb.AppDbAddress;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbManager;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbManagerService;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbUser;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbUserService;
+import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
+
+/**
+ * Seed data shared by the benchmark states.
+ * Every trial tags its rows with a run tag so repeated runs against the same database do not collide on the unique indexes.
+ */
+public final class DbTestBenchData {
+
+    /**
+     * The 'system' manager created by TestSecDb, used as the audit createdBy/updatedBy of benchmark rows.
+     */
+    public static final CFLibDbKeyHash256 SYSTEM_PID = new CFLibDbKeyHash256("fedcba9876543210");
+
+    private DbTestBenchData() {
+    }
+
+    public static String newRunTag() {
+        return Long.toString(System.currentTimeMillis(), 36);
+    }
+
+    public static <T> T pick(T[] values) {
+        return values[ThreadLocalRandom.current().nextInt(values.length)];
+    }
+
+    public static SecDbUser newUser(String username) {
+        LocalDateTime now = LocalDateTime.now();
+        return new SecDbUser(null, username, username + "@bench.dbtest", "1", now, SYSTEM_PID, now, SYSTEM_PID);
+    }
+
+    public static SecDbManager newManager(String username, String deptCode) {
+        LocalDateTime now = LocalDateTime.now();
+        return new SecDbManager(null, username, username + "@bench.dbtest", "1", "Bench Manager", deptCode,
+            null, null,
+            now, SYSTEM_PID,
+            now, SYSTEM_PID);
+    }
+
+    public static AppDbAddress newAddress(CFLibDbKeyHash256 refUID, String addressName) {
+        LocalDateTime now = LocalDateTime.now();
+        return new AppDbAddress(null, refUID, addressName, "Bench Contact", null, "1 Benchmark Street", null, "Yorkton", "SK", "Canada", "S3N 0X3",
+            now, SYSTEM_PID, now, SYSTEM_PID);
+    }
+
+    public static List<SecDbUser> seedUsers(SecDbUserService secDbUserService, String runTag, int count) {
+        List<SecDbUser> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            users.add(newUser("bu" + runTag + "-" + i));
+        }
+        return secDbUserService.createAll(users);
+    }
+
+    public static List<SecDbManager> seedManagers(SecDbManagerService secDbManagerService, String runTag, int count) {
+        List<SecDbManager> managers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            managers.add(newManager("bm" + runTag + "-" + i, "bd" + runTag + "-" + i));
+        }
+        return secDbManagerService.createAll(managers);
+    }
+}
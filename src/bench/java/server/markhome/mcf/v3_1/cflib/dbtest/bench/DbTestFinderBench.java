@@ -0,0 +1,274 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest.bench;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.hibernate.Session;
+import org.hibernate.query.SelectionQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.Example;
+import org.springframework.data.domain.ExampleMatcher;
+import org.springframework.data.jpa.convert.QueryByExamplePredicateBuilder;
+import org.springframework.data.jpa.repository.query.EscapeCharacter;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Root;
+
+import server.markhome.mcf.v3_1.cflib.dbtest.appdb.AppDbAddress;
+import server.markhome.mcf.v3_1.cflib.dbtest.appdb.AppDbAddressRepository;
+import server.markhome.mcf.v3_1.cflib.dbtest.appdb.AppDbAddressService;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbManager;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbManagerRepository;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbManagerService;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbSession;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbSessionRepository;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbSessionService;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbUser;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbUserRepository;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbUserService;
+
+/**
+ * Compares the Query-by-Example probes the services used to build with the derived repository finders that replaced
+ * them.  The *Example benchmarks reproduce the removed probes exactly, including their non-property matcher paths.
+ * The trial setup prints the SQL and the PostgreSQL plan of both forms of each lookup, so the run output shows whether
+ * sec_user_axname, sec_mgr_deptcode_ax and app_addr_axname are used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class DbTestFinderBench {
+
+    @Param({ "1000" })
+    public int seedUsers;
+
+    @Param({ "200" })
+    public int seedManagers;
+
+    @Param({ "3" })
+    public int rowsPerUser;
+
+    private SecDbUserRepository secDbUserRepository;
+    private SecDbManagerRepository secDbManagerRepository;
+    private SecDbSessionRepository secDbSessionRepository;
+    private AppDbAddressRepository appDbAddressRepository;
+    private SecDbUser[] users;
+    private SecDbManager[] managers;
+    private AppDbAddress[] addresses;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        DbTestBenchContext.start();
+        secDbUserRepository = DbTestBenchContext.getBean(SecDbUserRepository.class);
+        secDbManagerRepository = DbTestBenchContext.getBean(SecDbManagerRepository.class);
+        secDbSessionRepository = DbTestBenchContext.getBean(SecDbSessionRepository.class);
+        appDbAddressRepository = DbTestBenchContext.getBean(AppDbAddressRepository.class);
+
+        String runTag = DbTestBenchData.newRunTag();
+        List<SecDbUser> seededUsers = DbTestBenchData.seedUsers(DbTestBenchContext.getBean(SecDbUserService.class), runTag, seedUsers);
+        users = seededUsers.toArray(new SecDbUser[seededUsers.size()]);
+        List<SecDbManager> seededManagers = DbTestBenchData.seedManagers(DbTestBenchContext.getBean(SecDbManagerService.class), runTag, seedManagers);
+        managers = seededManagers.toArray(new SecDbManager[seededManagers.size()]);
+        List<SecDbSession> sessions = new ArrayList<>(seedUsers * rowsPerUser);
+        List<AppDbAddress> seededAddresses = new ArrayList<>(seedUsers * rowsPerUser);
+        int i = 0;
+        for (SecDbUser user : users) {
+            for (int j = 0; j < rowsPerUser; j++) {
+                sessions.add(new SecDbSession(null, user, "Benchmark seed session", LocalDateTime.now()));
+                seededAddresses.add(DbTestBenchData.newAddress(user.getPid(), "f" + runTag + "-" + (i++)));
+            }
+        }
+        DbTestBenchContext.getBean(SecDbSessionService.class).createAll(sessions);
+        seededAddresses = DbTestBenchContext.getBean(AppDbAddressService.class).createAll(seededAddresses);
+        addresses = seededAddresses.toArray(new AppDbAddress[seededAddresses.size()]);
+
+        printPlans();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        DbTestBenchContext.stop();
+    }
+
+    private void printPlans() {
+        EntityManagerFactory secEmf = DbTestBenchContext.getBean("secEntityManagerFactory", EntityManagerFactory.class);
+        EntityManagerFactory appEmf = DbTestBenchContext.getBean("appEntityManagerFactory", EntityManagerFactory.class);
+        SecDbUser user = users[0];
+        SecDbManager manager = managers[0];
+        AppDbAddress address = addresses[0];
+
+        DbTestQueryPlans.explain(System.out, secEmf, "SecDbUser by username (Example)",
+            byExample(SecDbUser.class, userNameExample(user.getUsername())));
+        DbTestQueryPlans.explain(System.out, secEmf, "SecDbUser by username (derived)",
+            session -> session.createSelectionQuery("from SecDbUser u where u.username = :username", SecDbUser.class)
+                .setParameter("username", user.getUsername()));
+
+        DbTestQueryPlans.explain(System.out, secEmf, "SecDbManager by deptcode (Example)",
+            byExample(SecDbManager.class, managerDeptCodeExample(manager.getDepartmentCode())));
+        DbTestQueryPlans.explain(System.out, secEmf, "SecDbManager by deptcode (derived)",
+            session -> session.createSelectionQuery("from SecDbManager m where m.departmentCode = :departmentCode", SecDbManager.class)
+                .setParameter("departmentCode", manager.getDepartmentCode()));
+
+        DbTestQueryPlans.explain(System.out, secEmf, "SecDbSession by user (Example)",
+            byExample(SecDbSession.class, sessionUserExample(user)));
+        DbTestQueryPlans.explain(System.out, secEmf, "SecDbSession by user (derived)",
+            session -> session.createSelectionQuery("from SecDbSession s where s.secUser.pid = :pid", SecDbSession.class)
+                .setParameter("pid", user.getPid()));
+
+        DbTestQueryPlans.explain(System.out, appEmf, "AppDbAddress by refuid, addrname (Example)",
+            byExample(AppDbAddress.class, addressRefUIDNameExample(address)));
+        DbTestQueryPlans.explain(System.out, appEmf, "AppDbAddress by refuid, addrname (derived)",
+            session -> session.createSelectionQuery("from AppDbAddress a where a.refUID = :refUID and a.addressName = :addressName", AppDbAddress.class)
+                .setParameter("refUID", address.getRefUID())
+                .setParameter("addressName", address.getAddressName()));
+    }
+
+    private static <T> Function<Session, SelectionQuery<?>> byExample(Class<T> type, Example<T> example) {
+        return session -> {
+            CriteriaBuilder cb = session.getCriteriaBuilder();
+            CriteriaQuery<T> query = cb.createQuery(type);
+            Root<T> root = query.from(type);
+            query.where(QueryByExamplePredicateBuilder.getPredicate(root, cb, example, EscapeCharacter.DEFAULT));
+            return session.createSelectionQuery(query);
+        };
+    }
+
+    private static Example<SecDbUser> userNameExample(String username) {
+        SecDbUser probe = new SecDbUser();
+        probe.setUsername(username);
+        ExampleMatcher matcher = ExampleMatcher.matching()
+            .withIgnoreNullValues()
+            .withMatcher("username", ExampleMatcher.GenericPropertyMatchers.exact());
+        return Example.of(probe, matcher);
+    }
+
+    private static Example<SecDbManager> managerDeptCodeExample(String deptCode) {
+        SecDbManager probe = new SecDbManager();
+        probe.setDepartmentCode(deptCode);
+        ExampleMatcher matcher = ExampleMatcher.matching()
+            .withIgnoreNullValues()
+            .withMatcher("deptcode", ExampleMatcher.GenericPropertyMatchers.exact());
+        return Example.of(probe, matcher);
+    }
+
+    private static Example<SecDbSession> sessionUserExample(SecDbUser user) {
+        SecDbSession probe = new SecDbSession();
+        probe.setSecUser(user);
+        ExampleMatcher matcher = ExampleMatcher.matching()
+            .withIgnoreNullValues()
+            .withMatcher("secuser_pid", ExampleMatcher.GenericPropertyMatchers.exact());
+        return Example.of(probe, matcher);
+    }
+
+    private static Example<AppDbAddress> addressRefUIDNameExample(AppDbAddress address) {
+        AppDbAddress probe = new AppDbAddress();
+        probe.setRefUID(address.getRefUID());
+        probe.setAddressName(address.getAddressName());
+        ExampleMatcher matcher = ExampleMatcher.matching()
+            .withIgnoreNullValues()
+            .withMatcher("refuid, addrname", ExampleMatcher.GenericPropertyMatchers.exact());
+        return Example.of(probe, matcher);
+    }
+
+    @Benchmark
+    public SecDbUser userByNameExample() {
+        return secDbUserRepository.findOne(userNameExample(DbTestBenchData.pick(users).getUsername())).orElse(null);
+    }
+
+    @Benchmark
+    public SecDbUser userByNameDerived() {
+        return secDbUserRepository.findByUsername(DbTestBenchData.pick(users).getUsername()).orElse(null);
+    }
+
+    @Benchmark
+    public List<SecDbManager> managerByDeptCodeExample() {
+        return secDbManagerRepository.findAll(managerDeptCodeExample(DbTestBenchData.pick(managers).getDepartmentCode()));
+    }
+
+    @Benchmark
+    public List<SecDbManager> managerByDeptCodeDerived() {
+        return secDbManagerRepository.findByDepartmentCode(DbTestBenchData.pick(managers).getDepartmentCode());
+    }
+
+    @Benchmark
+    public List<SecDbSession> sessionsByUserExample() {
+        return secDbSessionRepository.findAll(sessionUserExample(DbTestBenchData.pick(users)));
+    }
+
+    @Benchmark
+    public List<SecDbSession> sessionsByUserDerived() {
+        return secDbSessionRepository.findBySecUserPid(DbTestBenchData.pick(users).getPid());
+    }
+
+    @Benchmark
+    public AppDbAddress addressByRefUIDNameExample() {
+        return appDbAddressRepository.findOne(addressRefUIDNameExample(DbTestBenchData.pick(addresses))).orElse(null);
+    }
+
+    @Benchmark
+    public AppDbAddress addressByRefUIDNameDerived() {
+        AppDbAddress seed = DbTestBenchData.pick(addresses);
+        return appDbAddressRepository.findByRefUIDAndAddressName(seed.getRefUID(), seed.getAddressName()).orElse(null);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbConfig;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbManager;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbManagerService;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbUser;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbUserService;
+
+/**
+ * Compares the JOINED and SINGLE_TABLE mappings of the SecDbUser hierarchy for pid lookup, email lookup and bulk insert.
+ * Each inheritance value runs in its own fork with the secdb second-level cache off, so every lookup reaches the
+ * database and the sec_mgr join (or its absence) is what is measured.
+ * <p>
+ * Every fork recreates the secdb tables for its mapping, so this benchmark only runs in-process or with
+ * -Ddbtest.bench.recreate=true against a scratch database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class DbTestInheritanceBench {
+
+    public static final String RECREATE_PROPERTY = "dbtest.bench.recreate";
+
+    @Param({ SecDbConfig.INHERITANCE_JOINED, SecDbConfig.INHERITANCE_SINGLE_TABLE })
+    public String inheritance;
+
+    @Param({ "1000" })
+    public int seedUsers;
+
+    @Param({ "200" })
+    public int seedManagers;
+
+    @Param({ "100" })
+    public int bulkSize;
+
+    private final AtomicLong sequence = new AtomicLong(0L);
+    private SecDbUserService secDbUserService;
+    private SecDbManagerService secDbManagerService;
+    private String runTag;
+    private SecDbUser[] seeded;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if (!DbTestBenchContext.isInProcess() && !Boolean.getBoolean(RECREATE_PROPERTY)) {
+            throw new IllegalStateException("DbTestInheritanceBench recreates the secdb tables; run it with -D"
+                + DbTestBenchContext.INPROCESS_PROPERTY + "=true or, against a scratch database, -D" + RECREATE_PROPERTY + "=true");
+        }
+        Properties overrides = new Properties();
+        overrides.setProperty("secdb.inheritance", inheritance);
+        overrides.setProperty("secdb.hibernate.hbm2ddl.auto", "create");
+        overrides.setProperty("secdb.hibernate.cache.use_second_level_cache", "false");
+        DbTestBenchContext.start(overrides);
+        secDbUserService = DbTestBenchContext.getBean(SecDbUserService.class);
+        secDbManagerService = DbTestBenchContext.getBean(SecDbManagerService.class);
+        runTag = DbTestBenchData.newRunTag();
+        List<SecDbUser> all = new ArrayList<>(seedUsers + seedManagers);
+        all.addAll(DbTestBenchData.seedUsers(secDbUserService, runTag, seedUsers));
+        all.addAll(DbTestBenchData.seedManagers(secDbManagerService, runTag, seedManagers));
+        seeded = all.toArray(new SecDbUser[all.size()]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        DbTestBenchContext.stop();
+    }
+
+    @Benchmark
+    public SecDbUser findByPid() {
+        return secDbUserService.find(DbTestBenchData.pick(seeded).getPid());
+    }
+
+    @Benchmark
+    public List<SecDbUser> findByEmail() {
+        return secDbUserService.findByEmail(DbTestBenchData.pick(seeded).getEmail());
+    }
+
+    @Benchmark
+    public int bulkInsert() {
+        long seq = sequence.incrementAndGet();
+        int managerCount = Math.max(1, bulkSize * seedManagers / (seedUsers + seedManagers));
+        List<SecDbUser> users = new ArrayList<>(bulkSize - managerCount);
+        for (int i = managerCount; i < bulkSize; i++) {
+            users.add(DbTestBenchData.newUser("bi" + runTag + "-" + seq + "-" + i));
+        }
+        List<SecDbManager> managers = new ArrayList<>(managerCount);
+        for (int i = 0; i < managerCount; i++) {
+            managers.add(DbTestBenchData.newManager("bim" + runTag + "-" + seq + "-" + i, "bid" + runTag + "-" + seq + "-" + i));
+        }
+        return secDbUserService.createAll(users).size() + secDbManagerService.createAll(managers).size();
+    }
+}
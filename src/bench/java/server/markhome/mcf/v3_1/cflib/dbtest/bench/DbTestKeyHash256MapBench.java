@@ -0,0 +1,257 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest.bench;
+
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestKeyHash256Map;
+import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
+
+/**
+ * Compares DbTestKeyHash256Map with ConcurrentHashMap&lt;CFLibDbKeyHash256, ...&gt; for hit, miss and overwrite at 1M
+ * and 10M entries.  No database is involved.  The trial setup prints the heap retained by the populated map (keys
+ * excluded, since both maps are probed with the same key objects), which is where the inline keys pay off; run with
+ * -prof gc to see the per-operation allocation rates.
+ * <p>
+ * Before populating, a keyhash256 trial checks the map against a HashMap oracle, so a broken map fails the trial
+ * instead of being timed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx8g" })
+public class DbTestKeyHash256MapBench {
+
+    public static final String IMPL_KEY_HASH_256 = "keyhash256";
+    public static final String IMPL_CONCURRENT_HASH_MAP = "concurrent";
+
+    private static final int MISS_KEYS = 4096;
+    private static final int CHECK_KEYS = 50000;
+    private static final int CHECK_OPERATIONS = 500000;
+    private static final int CHECK_READERS = 4;
+
+    @Param({ "1000000", "10000000" })
+    public int entries;
+
+    @Param({ IMPL_KEY_HASH_256, IMPL_CONCURRENT_HASH_MAP })
+    public String impl;
+
+    private boolean inline;
+    private DbTestKeyHash256Map<Long> keyHashMap;
+    private ConcurrentHashMap<CFLibDbKeyHash256, Long> concurrentMap;
+    private CFLibDbKeyHash256[] keys;
+    private CFLibDbKeyHash256[] missKeys;
+    private final Long value = Long.valueOf(42L);
+
+    @Setup(Level.Trial)
+    public void setup() throws InterruptedException {
+        inline = IMPL_KEY_HASH_256.equals(impl);
+        if (inline) {
+            checkAgainstHashMap();
+        }
+        keys = new CFLibDbKeyHash256[entries];
+        for (int i = 0; i < entries; i++) {
+            keys[i] = new CFLibDbKeyHash256(0);
+        }
+        missKeys = new CFLibDbKeyHash256[MISS_KEYS];
+        for (int i = 0; i < MISS_KEYS; i++) {
+            missKeys[i] = new CFLibDbKeyHash256(0);
+        }
+        long before = usedHeap();
+        if (inline) {
+            keyHashMap = new DbTestKeyHash256Map<>(entries);
+            for (CFLibDbKeyHash256 key : keys) {
+                keyHashMap.put(key, value);
+            }
+        }
+        else {
+            concurrentMap = new ConcurrentHashMap<>(entries);
+            for (CFLibDbKeyHash256 key : keys) {
+                concurrentMap.put(key, value);
+            }
+        }
+        long retained = usedHeap() - before;
+        System.out.println(impl + " with " + entries + " entries retains " + (retained >> 20) + " MiB, "
+            + (retained / entries) + " bytes per entry");
+    }
+
+    /**
+     * Replays random put, remove and get calls on a map and a HashMap, comparing every result and the size.  The map
+     * starts at one minimum-size segment, so it resizes many times as it grows and empties.  Then a writer churns half
+     * of the keys of a four-segment map while readers check that the other half keep their values and that churned
+     * keys only ever read as absent or as one of their own values.
+     */
+    static void checkAgainstHashMap() throws InterruptedException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        CFLibDbKeyHash256[] pool = new CFLibDbKeyHash256[CHECK_KEYS];
+        for (int i = 0; i < CHECK_KEYS; i++) {
+            pool[i] = new CFLibDbKeyHash256(0);
+        }
+
+        DbTestKeyHash256Map<Long> map = new DbTestKeyHash256Map<>(0, 1);
+        HashMap<CFLibDbKeyHash256, Long> oracle = new HashMap<>();
+        for (int op = 0; op < CHECK_OPERATIONS; op++) {
+            CFLibDbKeyHash256 key = pool[random.nextInt(CHECK_KEYS)];
+            int kind = random.nextInt(10);
+            if (kind < 5) {
+                Long value = Long.valueOf(op);
+                checkResult("put", op, oracle.put(key, value), map.put(key, value));
+            }
+            else if (kind < 8) {
+                checkResult("remove", op, oracle.remove(key), map.remove(key));
+            }
+            else {
+                // A copy of the key bytes, so lookups cannot succeed by reference
+                checkResult("get", op, oracle.get(key), map.get(key.getBytes().clone()));
+            }
+            if (map.size() != oracle.size()) {
+                throw new IllegalStateException("DbTestKeyHash256Map size " + map.size() + " after operation " + op + ", expected " + oracle.size());
+            }
+        }
+        for (CFLibDbKeyHash256 key : pool) {
+            checkResult("put", CHECK_OPERATIONS, oracle.put(key, Long.valueOf(-1L)), map.put(key, Long.valueOf(-1L)));
+        }
+        for (CFLibDbKeyHash256 key : pool) {
+            checkResult("remove", CHECK_OPERATIONS, oracle.remove(key), map.remove(key));
+        }
+        if (!map.isEmpty()) {
+            throw new IllegalStateException("DbTestKeyHash256Map holds " + map.size() + " entries after removing every key");
+        }
+
+        DbTestKeyHash256Map<Long> shared = new DbTestKeyHash256Map<>(0, 4);
+        int stable = CHECK_KEYS / 2;
+        for (int i = 0; i < stable; i++) {
+            shared.put(pool[i], Long.valueOf(i));
+        }
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread[] readers = new Thread[CHECK_READERS];
+        for (int r = 0; r < CHECK_READERS; r++) {
+            readers[r] = Thread.ofPlatform().name("keyhash256-check-" + r).start(() -> {
+                ThreadLocalRandom readerRandom = ThreadLocalRandom.current();
+                while (writing.get() && failure.get() == null) {
+                    int i = readerRandom.nextInt(CHECK_KEYS);
+                    Long value = shared.get(pool[i]);
+                    // Churned values encode the key index above the operation number
+                    boolean ok = i < stable ? Long.valueOf(i).equals(value) : value == null || value.longValue() / CHECK_OPERATIONS == i;
+                    if (!ok) {
+                        failure.compareAndSet(null, "DbTestKeyHash256Map returned " + value + " for key " + i + " during concurrent writes");
+                    }
+                }
+            });
+        }
+        try {
+            for (int op = 0; op < CHECK_OPERATIONS && failure.get() == null; op++) {
+                int i = stable + random.nextInt(CHECK_KEYS - stable);
+                if (random.nextBoolean()) {
+                    shared.put(pool[i], Long.valueOf((long)i * CHECK_OPERATIONS + op));
+                }
+                else {
+                    shared.remove(pool[i]);
+                }
+            }
+        }
+        finally {
+            writing.set(false);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException(failure.get());
+        }
+    }
+
+    private static void checkResult(String call, int op, Long expected, Long actual) {
+        if (!Objects.equals(expected, actual)) {
+            throw new IllegalStateException("DbTestKeyHash256Map " + call + " returned " + actual + " at operation " + op + ", expected " + expected);
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Benchmark
+    public Long getHit() {
+        CFLibDbKeyHash256 key = keys[ThreadLocalRandom.current().nextInt(keys.length)];
+        return inline ? keyHashMap.get(key) : concurrentMap.get(key);
+    }
+
+    @Benchmark
+    public Long getMiss() {
+        CFLibDbKeyHash256 key = missKeys[ThreadLocalRandom.current().nextInt(MISS_KEYS)];
+        return inline ? keyHashMap.get(key) : concurrentMap.get(key);
+    }
+
+    @Benchmark
+    public Long putExisting() {
+        CFLibDbKeyHash256 key = keys[ThreadLocalRandom.current().nextInt(keys.length)];
+        return inline ? keyHashMap.put(key, value) : concurrentMap.put(key, value);
+    }
+}
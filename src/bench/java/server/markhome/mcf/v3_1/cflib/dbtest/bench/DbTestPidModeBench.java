@@ -0,0 +1,221 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest.bench;
+
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestPidGenerator;
+import server.markhome.mcf.v3_1.cflib.dbtest.appdb.AppDbAddress;
+import server.markhome.mcf.v3_1.cflib.dbtest.appdb.AppDbAddressService;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbSession;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbSessionService;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbUser;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbUserService;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Compares sustained insert throughput of random and time-ordered pids, with and without a pre-generated pid pool.
+ * Each combination runs in its own fork, as the generator is chosen once per unit from pid.mode and pid.pool-size.
+ * <p>
+ * At the end of each trial the size of the pid indexes is printed, along with their leaf density and fragmentation
+ * when the pgstattuple extension is installed, so the index bloat of the two modes can be compared after equal
+ * insert volumes.  Every fork recreates the secdb and appdb tables, so each mode starts from empty indexes; like
+ * DbTestInheritanceBench it only runs in-process or with -Ddbtest.bench.recreate=true against a scratch database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class DbTestPidModeBench {
+
+    private static final String[][] PID_INDEXES = {
+        { "secdb", "secdb.sec_user_pidx" },
+        { "secdb", "secdb.sec_sess_pkey" },
+        { "appdb", "appdb.app_addr_pidx" }
+    };
+
+    @Param({ DbTestPidGenerator.MODE_RANDOM, DbTestPidGenerator.MODE_TIME_ORDERED })
+    public String pidMode;
+
+    @Param({ "0", "4096" })
+    public int pidPoolSize;
+
+    @Param({ "200" })
+    public int seedUsers;
+
+    @Param({ "100" })
+    public int bulkSize;
+
+    private final AtomicLong sequence = new AtomicLong(0L);
+    private SecDbUserService secDbUserService;
+    private SecDbSessionService secDbSessionService;
+    private AppDbAddressService appDbAddressService;
+    private String runTag;
+    private SecDbUser[] users;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        if (!DbTestBenchContext.isInProcess() && !Boolean.getBoolean(DbTestInheritanceBench.RECREATE_PROPERTY)) {
+            throw new IllegalStateException("DbTestPidModeBench recreates the secdb and appdb tables; run it with -D"
+                + DbTestBenchContext.INPROCESS_PROPERTY + "=true or, against a scratch database, -D"
+                + DbTestInheritanceBench.RECREATE_PROPERTY + "=true");
+        }
+        Properties overrides = new Properties();
+        overrides.setProperty("pid.mode", pidMode);
+        overrides.setProperty("pid.pool-size", Integer.toString(pidPoolSize));
+        overrides.setProperty("secdb.hibernate.hbm2ddl.auto", "create");
+        overrides.setProperty("appdb.hibernate.hbm2ddl.auto", "create");
+        DbTestBenchContext.start(overrides);
+        secDbUserService = DbTestBenchContext.getBean(SecDbUserService.class);
+        secDbSessionService = DbTestBenchContext.getBean(SecDbSessionService.class);
+        appDbAddressService = DbTestBenchContext.getBean(AppDbAddressService.class);
+        runTag = DbTestBenchData.newRunTag();
+        List<SecDbUser> seeded = DbTestBenchData.seedUsers(secDbUserService, runTag, seedUsers);
+        users = seeded.toArray(new SecDbUser[seeded.size()]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        try {
+            printIndexStats(System.out);
+        }
+        finally {
+            DbTestBenchContext.stop();
+        }
+    }
+
+    @Benchmark
+    public int insertUsers() {
+        long seq = sequence.incrementAndGet();
+        List<SecDbUser> batch = new ArrayList<>(bulkSize);
+        for (int i = 0; i < bulkSize; i++) {
+            batch.add(DbTestBenchData.newUser("bp" + runTag + "-" + seq + "-" + i));
+        }
+        return secDbUserService.createAll(batch).size();
+    }
+
+    @Benchmark
+    public SecDbSession insertSession() {
+        return secDbSessionService.create(new SecDbSession(null, DbTestBenchData.pick(users), "Benchmark session", LocalDateTime.now()));
+    }
+
+    @Benchmark
+    public AppDbAddress insertAddress() {
+        return appDbAddressService.create(DbTestBenchData.newAddress(DbTestBenchData.pick(users).getPid(), "bp" + runTag + "-" + sequence.incrementAndGet()));
+    }
+
+    private void printIndexStats(PrintStream out) {
+        out.println("=== pid indexes after " + pidMode + " inserts (pool " + pidPoolSize + ")");
+        for (String[] index : PID_INDEXES) {
+            EntityManagerFactory emf = DbTestBenchContext.getBean(index[0].equals("secdb") ? "secEntityManagerFactory" : "appEntityManagerFactory", EntityManagerFactory.class);
+            try (Session session = emf.unwrap(SessionFactory.class).openSession()) {
+                session.doWork(connection -> {
+                    if (!connection.getMetaData().getDatabaseProductName().toLowerCase().contains("postgresql")) {
+                        return;
+                    }
+                    out.println(index[1] + ": " + indexStats(connection, index[1]));
+                });
+            }
+        }
+    }
+
+    private static String indexStats(Connection connection, String index) throws SQLException {
+        String size;
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT pg_size_pretty(pg_relation_size(to_regclass(?)))")) {
+            stmt.setString(1, index);
+            try (ResultSet rs = stmt.executeQuery()) {
+                size = rs.next() ? rs.getString(1) : null;
+            }
+        }
+        if (size == null) {
+            return "not found";
+        }
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT leaf_pages, avg_leaf_density, leaf_fragmentation FROM pgstatindex(?)")) {
+            stmt.setString(1, index);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    size = size + ", " + rs.getLong(1) + " leaf pages, " + rs.getDouble(2) + "% leaf density, " + rs.getDouble(3) + "% leaf fragmentation";
+                }
+            }
+        }
+        catch (SQLException e) {
+            size = size + " (install pgstattuple for leaf density)";
+        }
+        finally {
+            connection.rollback();
+            connection.setAutoCommit(autoCommit);
+        }
+        return size;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest.bench;
+
+import java.io.PrintStream;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.query.SelectionQuery;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Prints the PostgreSQL plan of the SQL Hibernate generates for a query.
+ * <p>
+ * The query is executed once in a session whose StatementInspector captures the generated SQL, and that SQL is then
+ * explained with EXPLAIN (GENERIC_PLAN), which needs PostgreSQL 16 or later but no bound parameter values.  Other
+ * databases only get the captured SQL printed.
+ */
+public final class DbTestQueryPlans {
+
+    private DbTestQueryPlans() {
+    }
+
+    public static void explain(PrintStream out, EntityManagerFactory emf, String label, Function<Session, SelectionQuery<?>> queryFactory) {
+        List<String> captured = new ArrayList<>();
+        SessionFactory sessionFactory = emf.unwrap(SessionFactory.class);
+        try (Session session = sessionFactory.withOptions().statementInspector(sql -> {
+                captured.add(sql);
+                return sql;
+            }).openSession()) {
+            session.beginTransaction();
+            try {
+                queryFactory.apply(session).getResultList();
+                out.println("=== " + label);
+                session.doWork(connection -> {
+                    boolean postgres = connection.getMetaData().getDatabaseProductName().toLowerCase().contains("postgresql");
+                    for (String sql : captured) {
+                        out.println(sql);
+                        if (!postgres) {
+                            continue;
+                        }
+                        try (PreparedStatement stmt = connection.prepareStatement("EXPLAIN (GENERIC_PLAN) " + toNumberedParameters(sql));
+                            ResultSet rs = stmt.executeQuery()) {
+                            while (rs.next()) {
+                                out.println("    " + rs.getString(1));
+                            }
+                        }
+                    }
+                });
+            }
+            finally {
+                session.getTransaction().rollback();
+            }
+        }
+    }
+
+    /**
+     * Rewrites JDBC '?' markers as PostgreSQL $n parameters so the statement can be explained without binding values.
+     */
+    static String toNumberedParameters(String sql) {
+        StringBuilder buff = new StringBuilder(sql.length() + 16);
+        int n = 0;
+        boolean quoted = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char ch = sql.charAt(i);
+            if (ch == '\'') {
+                quoted = !quoted;
+            }
+            if (ch == '?' && !quoted) {
+                buff.append('$').append(++n);
+            }
+            else {
+                buff.append(ch);
+            }
+        }
+        return buff.toString();
+    }
+}
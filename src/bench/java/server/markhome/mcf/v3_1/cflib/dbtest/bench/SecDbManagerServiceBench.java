@@ -0,0 +1,126 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbManager;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbManagerService;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbUser;
+
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class SecDbManagerServiceBench {
+
+    @Param({ "200" })
+    public int seedManagers;
+
+    private final AtomicLong sequence = new AtomicLong(0L);
+    private SecDbManagerService secDbManagerService;
+    private String runTag;
+    private SecDbManager[] managers;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        DbTestBenchContext.start();
+        secDbManagerService = DbTestBenchContext.getBean(SecDbManagerService.class);
+        runTag = DbTestBenchData.newRunTag();
+        List<SecDbManager> seeded = DbTestBenchData.seedManagers(secDbManagerService, runTag, seedManagers);
+        managers = seeded.toArray(new SecDbManager[seeded.size()]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        DbTestBenchContext.stop();
+    }
+
+    @Benchmark
+    public SecDbUser find() {
+        return secDbManagerService.find(DbTestBenchData.pick(managers).getPid());
+    }
+
+    @Benchmark
+    public SecDbUser findByName() {
+        return secDbManagerService.findByName(DbTestBenchData.pick(managers).getUsername());
+    }
+
+    @Benchmark
+    public List<SecDbManager> findByDeptCode() {
+        return secDbManagerService.findByDeptCode(DbTestBenchData.pick(managers).getDepartmentCode());
+    }
+
+    @Benchmark
+    public SecDbManager create() {
+        long seq = sequence.incrementAndGet();
+        return secDbManagerService.create(DbTestBenchData.newManager("bmc" + runTag + "-" + seq, "bdc" + runTag + "-" + seq));
+    }
+
+    @Benchmark
+    public SecDbManager update() {
+        SecDbManager seed = DbTestBenchData.pick(managers);
+        SecDbManager data = DbTestBenchData.newManager(seed.getUsername(), seed.getDepartmentCode());
+        data.setPid(seed.getPid());
+        data.setTitle("Bench Manager " + sequence.incrementAndGet());
+        return secDbManagerService.update(data);
+    }
+}
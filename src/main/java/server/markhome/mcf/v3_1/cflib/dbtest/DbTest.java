@@ -186,6 +186,15 @@ public class DbTest
     }
 
     public static void main(String[] args) {
+        SpringApplication app = createApplication();
+        app.run(args);
+    }
+
+    /**
+     * Prepares the merged properties and the SpringApplication for DbTest, without running it.
+     * Harnesses such as the benchmarks use this to apply their own overrides to getMergedProperties() before the context starts.
+     */
+    public static SpringApplication createApplication() {
         Inz.addPathEntry(new InzPathEntry( "/opt/mcf/v3_1/java" + "/server.markhome.mcf.v3_1.cflib.dbtest/src/main/resources/server.markhome.mcf/v3_1/cflib/dbtest/langs"));
 
         // This weird looking cadence ensures that all the sub-property lists are prepared before getMergedProperties() is invoked, ensuring that any errors and exceptions along the way are thrown first and in predictable order
@@ -201,6 +210,6 @@ public class DbTest
             ConfigurableEnvironment env = applicationContext.getEnvironment();
             env.getPropertySources().addLast(new org.springframework.core.env.PropertiesPropertySource("userProperties", userProperties.get()));
         });
-        app.run(args);
+        return app;
     }
 }
@@ -0,0 +1,153 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
+
+import jakarta.persistence.EntityManager;
+
+/**
+ * The batching loop behind the createAll() methods of the services.
+ * <p>
+ * The rows are prepared in input order and split into slices of one JDBC batch.  Each slice costs one IN query for
+ * the pids that already exist, its new rows are persisted and flushed as one ordered JDBC batch, and the persistence
+ * context is then cleared, so memory stays bounded however many rows are passed.  The pid map that
+ * resolves existing and repeated pids is scoped to one slice; a pid repeated in a later slice is found by that
+ * slice's IN query, as the earlier one has been flushed by then.
+ */
+public final class DbTestBatchInserter<T> {
+
+    private final EntityManager entityManager;
+    private final int batchSize;
+    private final Function<T, CFLibDbKeyHash256> pidOf;
+    private final Function<List<CFLibDbKeyHash256>, Iterable<? extends T>> findExisting;
+    private Consumer<T> prepare = row -> {};
+    private Consumer<List<T>> afterFlush = persisted -> {};
+
+    /**
+     * @param entityManager the persistence context of the unit the rows belong to
+     * @param batchSize the rows per slice, normally the unit's hibernate.jdbc.batch_size
+     * @param pidOf the primary key of a row
+     * @param findExisting the rows already stored under any of the given pids, typically repository::findAllById
+     */
+    public DbTestBatchInserter(EntityManager entityManager, int batchSize, Function<T, CFLibDbKeyHash256> pidOf, Function<List<CFLibDbKeyHash256>, Iterable<? extends T>> findExisting) {
+        this.entityManager = entityManager;
+        this.batchSize = Math.max(1, batchSize);
+        this.pidOf = pidOf;
+        this.findExisting = findExisting;
+    }
+
+    /**
+     * Applied to each non-null row before it is batched, to assign its pid and timestamps.
+     */
+    public DbTestBatchInserter<T> prepare(Consumer<T> prepare) {
+        this.prepare = prepare;
+        return this;
+    }
+
+    /**
+     * Applied to the rows newly persisted by a slice after it is flushed and before the persistence context is cleared.
+     */
+    public DbTestBatchInserter<T> afterFlush(Consumer<List<T>> afterFlush) {
+        this.afterFlush = afterFlush;
+        return this;
+    }
+
+    /**
+     * Persists the rows, skipping nulls, and returns for each one either the row itself or the row already stored
+     * under its pid, in input order.
+     */
+    public List<T> insertAll(Collection<? extends T> data) {
+        List<T> created = new ArrayList<>(data.size());
+        List<T> batch = new ArrayList<>(Math.min(batchSize, data.size()));
+        for (T row : data) {
+            if (row == null) {
+                continue;
+            }
+            prepare.accept(row);
+            batch.add(row);
+            if (batch.size() >= batchSize) {
+                insertBatch(batch, created);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            insertBatch(batch, created);
+        }
+        return created;
+    }
+
+    private void insertBatch(List<T> batch, List<T> created) {
+        Map<CFLibDbKeyHash256, T> resolved = new HashMap<>();
+        List<CFLibDbKeyHash256> pids = new ArrayList<>(batch.size());
+        for (T row : batch) {
+            pids.add(pidOf.apply(row));
+        }
+        for (T existing : findExisting.apply(pids)) {
+            resolved.put(pidOf.apply(existing), existing);
+        }
+        List<T> persisted = new ArrayList<>(batch.size());
+        for (T row : batch) {
+            T prior = resolved.putIfAbsent(pidOf.apply(row), row);
+            if (prior != null) {
+                created.add(prior);
+            }
+            else {
+                entityManager.persist(row);
+                created.add(row);
+                persisted.add(row);
+            }
+        }
+        entityManager.flush();
+        afterFlush.accept(persisted);
+        entityManager.clear();
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads RFC 4180 CSV one record at a time, the counterpart of DbTestExportWriter's CSV format.
+ * <p>
+ * Quoted fields may contain commas, doubled quotes and line breaks; records end at LF, CR or CRLF.  Only the current
+ * record is held in memory.  getRecordLine() reports the physical line a record started on, so rejects can be
+ * traced back to the input.  A UTF-8 byte order mark at the start of the input is skipped, so it does not end up in
+ * the first header name.
+ */
+public class DbTestCsvReader implements Closeable {
+
+    private final Reader reader;
+    private final StringBuilder field = new StringBuilder(64);
+    private long line = 1L;
+    private long recordLine = 0L;
+    private int pushback = -2;
+    private boolean started = false;
+
+    public DbTestCsvReader(InputStream in) {
+        if (in == null) {
+            throw new IllegalArgumentException("in must not be null");
+        }
+        this.reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    public long getRecordLine() {
+        return recordLine;
+    }
+
+    /**
+     * The next record's fields, or null at end of input.  Blank lines are skipped.
+     */
+    public String[] readRecord() throws IOException {
+        int ch = read();
+        if (!started) {
+            started = true;
+            if (ch == '\uFEFF') {
+                ch = read();
+            }
+        }
+        while (ch == '\r' || ch == '\n') {
+            endOfLine(ch);
+            ch = read();
+        }
+        if (ch < 0) {
+            return null;
+        }
+        recordLine = line;
+        List<String> fields = new ArrayList<>();
+        while (true) {
+            field.setLength(0);
+            if (ch == '"') {
+                long openedAt = line;
+                while (true) {
+                    ch = read();
+                    if (ch < 0) {
+                        throw new IOException("Unterminated quoted CSV field opened on line " + openedAt);
+                    }
+                    if (ch == '"') {
+                        ch = read();
+                        if (ch != '"') {
+                            break;
+                        }
+                    }
+                    else if (ch == '\n' || (ch == '\r' && peek() != '\n')) {
+                        line++;
+                    }
+                    field.append((char) ch);
+                }
+            }
+            while (ch >= 0 && ch != ',' && ch != '\r' && ch != '\n') {
+                field.append((char) ch);
+                ch = read();
+            }
+            fields.add(field.toString());
+            if (ch == ',') {
+                ch = read();
+                continue;
+            }
+            if (ch >= 0) {
+                endOfLine(ch);
+            }
+            return fields.toArray(new String[fields.size()]);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+    private void endOfLine(int ch) throws IOException {
+        if (ch == '\r' && peek() == '\n') {
+            read();
+        }
+        line++;
+    }
+
+    private int read() throws IOException {
+        if (pushback != -2) {
+            int ch = pushback;
+            pushback = -2;
+            return ch;
+        }
+        return reader.read();
+    }
+
+    private int peek() throws IOException {
+        if (pushback == -2) {
+            pushback = reader.read();
+        }
+        return pushback;
+    }
+}
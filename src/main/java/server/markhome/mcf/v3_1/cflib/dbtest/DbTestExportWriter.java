@@ -0,0 +1,238 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes exported rows one at a time as CSV (RFC 4180, with a header line) or NDJSON (one JSON object per line).
+ * <p>
+ * Nothing is retained between rows, so the memory an export needs does not depend on how many rows it writes.
+ * Values are rendered with toString(), except that nulls become empty CSV fields or JSON nulls, and numbers and
+ * booleans are written unquoted in NDJSON.  close() flushes the writer but leaves the underlying stream open, so the
+ * caller that opened the stream stays responsible for closing it.
+ */
+public class DbTestExportWriter implements Flushable, Closeable {
+
+    public enum Format {
+        CSV,
+        NDJSON;
+
+        /**
+         * Parses a format name case-insensitively, accepting "json" as an alias for NDJSON.
+         */
+        public static Format fromName(String name) {
+            if (name == null) {
+                throw new IllegalArgumentException("Export format must not be null; expected csv or ndjson");
+            }
+            String trimmed = name.trim();
+            if ("json".equalsIgnoreCase(trimmed)) {
+                return NDJSON;
+            }
+            for (Format format : values()) {
+                if (format.name().equalsIgnoreCase(trimmed)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Unknown export format \"" + name + "\"; expected csv or ndjson");
+        }
+    }
+
+    private final Writer writer;
+    private final Format format;
+    private final String[] columns;
+    private final String[] jsonNames;
+    private long rowCount = 0L;
+
+    public DbTestExportWriter(OutputStream out, Format format, String... columns) throws IOException {
+        if (out == null) {
+            throw new IllegalArgumentException("out must not be null");
+        }
+        if (format == null) {
+            throw new IllegalArgumentException("format must not be null");
+        }
+        if (columns == null || columns.length == 0) {
+            throw new IllegalArgumentException("At least one export column is required");
+        }
+        this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+        this.format = format;
+        this.columns = columns.clone();
+        this.jsonNames = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            StringBuilder buff = new StringBuilder(columns[i].length() + 4);
+            appendJsonString(buff, columns[i]);
+            jsonNames[i] = buff.append(':').toString();
+        }
+        if (format == Format.CSV) {
+            StringBuilder header = new StringBuilder(16 * columns.length);
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    header.append(',');
+                }
+                appendCsvField(header, columns[i]);
+            }
+            writer.write(header.append("\r\n").toString());
+        }
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Writes one row; values are given in the order of the columns passed to the constructor.
+     */
+    public void writeRow(Object... values) throws IOException {
+        if (values == null || values.length != columns.length) {
+            throw new IllegalArgumentException("Expected " + columns.length + " export values, got " + (values == null ? 0 : values.length));
+        }
+        StringBuilder buff = new StringBuilder(32 * columns.length);
+        if (format == Format.CSV) {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    buff.append(',');
+                }
+                if (values[i] != null) {
+                    appendCsvField(buff, values[i].toString());
+                }
+            }
+            buff.append("\r\n");
+        }
+        else {
+            buff.append('{');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    buff.append(',');
+                }
+                buff.append(jsonNames[i]);
+                Object value = values[i];
+                if (value == null) {
+                    buff.append("null");
+                }
+                else if (value instanceof Number || value instanceof Boolean) {
+                    buff.append(value);
+                }
+                else {
+                    appendJsonString(buff, value.toString());
+                }
+            }
+            buff.append("}\n");
+        }
+        writer.write(buff.toString());
+        rowCount++;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.flush();
+    }
+
+    static void appendCsvField(StringBuilder buff, String value) {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char ch = value.charAt(i);
+            quote = ch == ',' || ch == '"' || ch == '\r' || ch == '\n';
+        }
+        if (!quote) {
+            buff.append(value);
+            return;
+        }
+        buff.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            if (ch == '"') {
+                buff.append('"');
+            }
+            buff.append(ch);
+        }
+        buff.append('"');
+    }
+
+    static void appendJsonString(StringBuilder buff, String value) {
+        buff.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+                case '"':
+                    buff.append("\\\"");
+                    break;
+                case '\\':
+                    buff.append("\\\\");
+                    break;
+                case '\n':
+                    buff.append("\\n");
+                    break;
+                case '\r':
+                    buff.append("\\r");
+                    break;
+                case '\t':
+                    buff.append("\\t");
+                    break;
+                default:
+                    if (ch < 0x20) {
+                        buff.append(String.format("\\u%04x", (int) ch));
+                    }
+                    else {
+                        buff.append(ch);
+                    }
+            }
+        }
+        buff.append('"');
+    }
+}
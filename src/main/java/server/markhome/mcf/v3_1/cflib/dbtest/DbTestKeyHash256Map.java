@@ -0,0 +1,434 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+import server.markhome.mcf.v3_1.cflib.CFLibNullArgumentException;
+import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
+
+/**
+ * A concurrent hash map keyed by the 256 bits of a CFLibDbKeyHash256, for the pid-keyed caches and indexes.
+ * <p>
+ * Keys are not retained as objects: each slot stores its key as four longs inline in one long[] per segment, next to
+ * the value in a parallel Object[], and collisions are resolved by linear probing.  An entry therefore costs 32 bytes
+ * of key plus one value reference, with no node, no boxed key and no byte[] to chase, and get() and put() of an
+ * existing key allocate nothing.  The key bytes are read straight out of getBytes(), or out of a caller's byte[] with
+ * the byte[] overloads.
+ * <p>
+ * The map is split into a power of two segments selected by the high hash bits.  Writers lock their segment; readers
+ * probe optimistically under a StampedLock stamp and only take the read lock when a writer raced them.  Values may not
+ * be null.  size() and forEachValue() are weakly consistent across segments.
+ */
+public final class DbTestKeyHash256Map<V> {
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final int KEY_LONGS = 4;
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private static final class Table {
+        final long[] keys;
+        final Object[] values;
+        final int mask;
+        final int threshold;
+
+        Table(int capacity) {
+            keys = new long[capacity * KEY_LONGS];
+            values = new Object[capacity];
+            mask = capacity - 1;
+            // Linear probing degrades quickly past ~70% occupancy
+            threshold = (int)(capacity * 0.7f);
+        }
+    }
+
+    private static final class Segment {
+        final StampedLock lock = new StampedLock();
+        Table table;
+        volatile int size;
+
+        Segment(int capacity) {
+            table = new Table(capacity);
+        }
+    }
+
+    private final Segment[] segments;
+    private final int segmentMask;
+
+    public DbTestKeyHash256Map() {
+        this(1024, 64);
+    }
+
+    public DbTestKeyHash256Map(int expectedSize) {
+        this(expectedSize, 64);
+    }
+
+    /**
+     * expectedSize presizes the segments so that many entries fit without a resize; concurrencyLevel is rounded up to
+     * a power of two and is the number of independently locked segments.
+     */
+    public DbTestKeyHash256Map(int expectedSize, int concurrencyLevel) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expectedSize must not be negative, not " + expectedSize);
+        }
+        if (concurrencyLevel < 1) {
+            throw new IllegalArgumentException("concurrencyLevel must be at least 1, not " + concurrencyLevel);
+        }
+        int segmentCount = ceilingPowerOfTwo(Math.min(concurrencyLevel, 1 << 16));
+        int perSegment = ceilingPowerOfTwo((int)Math.min(MAX_CAPACITY, Math.max(MIN_CAPACITY, (long)(expectedSize / segmentCount / 0.7f) + 1L)));
+        segments = new Segment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+        segmentMask = segmentCount - 1;
+    }
+
+    public V get(CFLibDbKeyHash256 key) {
+        return get(bytesOf(key, "get"));
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(byte[] key) {
+        checkKey(key, "get");
+        long k0 = (long)LONGS.get(key, 0);
+        long k1 = (long)LONGS.get(key, 8);
+        long k2 = (long)LONGS.get(key, 16);
+        long k3 = (long)LONGS.get(key, 24);
+        long h = hash(k0, k1, k2, k3);
+        Segment segment = segmentFor(h);
+        StampedLock lock = segment.lock;
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0L) {
+            Table table = segment.table;
+            int slot = find(table, k0, k1, k2, k3, h);
+            Object value = slot >= 0 ? table.values[slot] : null;
+            if (lock.validate(stamp)) {
+                return (V)value;
+            }
+        }
+        stamp = lock.readLock();
+        try {
+            Table table = segment.table;
+            int slot = find(table, k0, k1, k2, k3, h);
+            return slot >= 0 ? (V)table.values[slot] : null;
+        }
+        finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    public boolean containsKey(CFLibDbKeyHash256 key) {
+        return get(key) != null;
+    }
+
+    public boolean containsKey(byte[] key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Associates value with key, returning the value it replaced or null.
+     */
+    public V put(CFLibDbKeyHash256 key, V value) {
+        return put(bytesOf(key, "put"), value, false);
+    }
+
+    public V put(byte[] key, V value) {
+        return put(key, value, false);
+    }
+
+    /**
+     * Associates value with key unless the key is already present, returning the present value or null.
+     */
+    public V putIfAbsent(CFLibDbKeyHash256 key, V value) {
+        return put(bytesOf(key, "putIfAbsent"), value, true);
+    }
+
+    public V putIfAbsent(byte[] key, V value) {
+        return put(key, value, true);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V put(byte[] key, V value, boolean onlyIfAbsent) {
+        checkKey(key, "put");
+        if (value == null) {
+            throw new CFLibNullArgumentException(DbTestKeyHash256Map.class, "put", 2, "value");
+        }
+        long k0 = (long)LONGS.get(key, 0);
+        long k1 = (long)LONGS.get(key, 8);
+        long k2 = (long)LONGS.get(key, 16);
+        long k3 = (long)LONGS.get(key, 24);
+        long h = hash(k0, k1, k2, k3);
+        Segment segment = segmentFor(h);
+        long stamp = segment.lock.writeLock();
+        try {
+            Table table = segment.table;
+            int slot = find(table, k0, k1, k2, k3, h);
+            if (slot >= 0) {
+                Object prior = table.values[slot];
+                if (!onlyIfAbsent) {
+                    table.values[slot] = value;
+                }
+                return (V)prior;
+            }
+            if (segment.size >= table.threshold) {
+                table = resize(segment);
+            }
+            int i = (int)h & table.mask;
+            while (table.values[i] != null) {
+                i = (i + 1) & table.mask;
+            }
+            int base = i * KEY_LONGS;
+            table.keys[base] = k0;
+            table.keys[base + 1] = k1;
+            table.keys[base + 2] = k2;
+            table.keys[base + 3] = k3;
+            table.values[i] = value;
+            segment.size = segment.size + 1;
+            return null;
+        }
+        finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    public V remove(CFLibDbKeyHash256 key) {
+        return remove(bytesOf(key, "remove"));
+    }
+
+    /**
+     * Removes the key, returning its value or null.  The probe run behind the freed slot is shifted back so no
+     * tombstones accumulate.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(byte[] key) {
+        checkKey(key, "remove");
+        long k0 = (long)LONGS.get(key, 0);
+        long k1 = (long)LONGS.get(key, 8);
+        long k2 = (long)LONGS.get(key, 16);
+        long k3 = (long)LONGS.get(key, 24);
+        long h = hash(k0, k1, k2, k3);
+        Segment segment = segmentFor(h);
+        long stamp = segment.lock.writeLock();
+        try {
+            Table table = segment.table;
+            int i = find(table, k0, k1, k2, k3, h);
+            if (i < 0) {
+                return null;
+            }
+            long[] keys = table.keys;
+            Object[] values = table.values;
+            int mask = table.mask;
+            Object prior = values[i];
+            int j = i;
+            while (true) {
+                j = (j + 1) & mask;
+                if (values[j] == null) {
+                    break;
+                }
+                int b = j * KEY_LONGS;
+                int home = (int)hash(keys[b], keys[b + 1], keys[b + 2], keys[b + 3]) & mask;
+                // The entry at j may fill the hole at i unless its home slot lies cyclically within (i, j]
+                boolean homeInRange = (i <= j) ? (home > i && home <= j) : (home > i || home <= j);
+                if (!homeInRange) {
+                    System.arraycopy(keys, b, keys, i * KEY_LONGS, KEY_LONGS);
+                    values[i] = values[j];
+                    i = j;
+                }
+            }
+            values[i] = null;
+            segment.size = segment.size - 1;
+            return (V)prior;
+        }
+        finally {
+            segment.lock.unlockWrite(stamp);
+        }
+    }
+
+    public int size() {
+        long size = 0L;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return (int)Math.min(Integer.MAX_VALUE, size);
+    }
+
+    public boolean isEmpty() {
+        for (Segment segment : segments) {
+            if (segment.size > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            long stamp = segment.lock.writeLock();
+            try {
+                segment.table = new Table(MIN_CAPACITY);
+                segment.size = 0;
+            }
+            finally {
+                segment.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    /**
+     * Passes every value to action, a segment at a time.  The values of each segment are copied out under its read
+     * lock and action runs without any lock held, so it may update this map.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<? super V> action) {
+        List<Object> batch = new ArrayList<>();
+        for (Segment segment : segments) {
+            long stamp = segment.lock.readLock();
+            try {
+                for (Object value : segment.table.values) {
+                    if (value != null) {
+                        batch.add(value);
+                    }
+                }
+            }
+            finally {
+                segment.lock.unlockRead(stamp);
+            }
+            for (Object value : batch) {
+                action.accept((V)value);
+            }
+            batch.clear();
+        }
+    }
+
+    private Segment segmentFor(long h) {
+        return segments[(int)(h >>> 40) & segmentMask];
+    }
+
+    /**
+     * The slot holding the key, or -1.  The probe is bounded by the table size so an optimistic reader racing a writer
+     * always terminates; its answer is then discarded by the failed validate().
+     */
+    private static int find(Table table, long k0, long k1, long k2, long k3, long h) {
+        long[] keys = table.keys;
+        Object[] values = table.values;
+        int mask = table.mask;
+        int i = (int)h & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            if (values[i] == null) {
+                return -1;
+            }
+            int b = i * KEY_LONGS;
+            if (keys[b] == k0 && keys[b + 1] == k1 && keys[b + 2] == k2 && keys[b + 3] == k3) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private static Table resize(Segment segment) {
+        Table old = segment.table;
+        int capacity = old.values.length;
+        if (capacity >= MAX_CAPACITY) {
+            throw new IllegalStateException("DbTestKeyHash256Map segment cannot grow beyond " + MAX_CAPACITY + " slots");
+        }
+        Table grown = new Table(capacity << 1);
+        for (int slot = 0; slot < capacity; slot++) {
+            Object value = old.values[slot];
+            if (value == null) {
+                continue;
+            }
+            int b = slot * KEY_LONGS;
+            long h = hash(old.keys[b], old.keys[b + 1], old.keys[b + 2], old.keys[b + 3]);
+            int i = (int)h & grown.mask;
+            while (grown.values[i] != null) {
+                i = (i + 1) & grown.mask;
+            }
+            System.arraycopy(old.keys, b, grown.keys, i * KEY_LONGS, KEY_LONGS);
+            grown.values[i] = value;
+        }
+        segment.table = grown;
+        return grown;
+    }
+
+    /**
+     * Folds the four key words together and finalizes with the MurmurHash3 64-bit mixer, so keys which are not
+     * uniformly random still spread across segments (high bits) and slots (low bits).
+     */
+    private static long hash(long k0, long k1, long k2, long k3) {
+        long h = k0 ^ Long.rotateLeft(k1, 16) ^ Long.rotateLeft(k2, 32) ^ Long.rotateLeft(k3, 48);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static byte[] bytesOf(CFLibDbKeyHash256 key, String methName) {
+        if (key == null) {
+            throw new CFLibNullArgumentException(DbTestKeyHash256Map.class, methName, 1, "key");
+        }
+        return key.getBytes();
+    }
+
+    private static void checkKey(byte[] key, String methName) {
+        if (key == null) {
+            throw new CFLibNullArgumentException(DbTestKeyHash256Map.class, methName, 1, "key");
+        }
+        if (key.length != CFLibDbKeyHash256.HASH_LENGTH) {
+            throw new IllegalArgumentException("DbTestKeyHash256Map." + methName + "() key must be " + CFLibDbKeyHash256.HASH_LENGTH + " bytes, not " + key.length);
+        }
+    }
+
+    private static int ceilingPowerOfTwo(int n) {
+        return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * One page of a keyset (seek) listing and the continuation token of the page after it.
+ * <p>
+ * The token is an opaque base64url encoding of the sort key of the last row on the page, tagged with the listing's
+ * order so a token cannot be replayed against a different listing.  Filtered listings tag with scope(order, value),
+ * binding the token to the filter value as well.  The next page is read with a WHERE key &gt; token
+ * predicate on an index in key order, so page 10000 costs the same as page 1, and rows inserted or deleted between
+ * requests neither repeat nor skip the rows after the token.  nextToken is null on the last page.
+ */
+public record DbTestKeysetPage<T>(List<T> content, String nextToken) {
+
+    private final static byte TOKEN_VERSION = 1;
+
+    public boolean hasNext() {
+        return nextToken != null;
+    }
+
+    public static <T> DbTestKeysetPage<T> empty() {
+        return new DbTestKeysetPage<>(new ArrayList<>(), null);
+    }
+
+    /**
+     * The upper bound on a page size, keyset.max-limit (default 1000).  Larger requested limits are reduced to it.
+     */
+    public static int getMaxLimit() {
+        return Integer.parseInt(DbTest.getMergedProperties().getProperty("keyset.max-limit", "1000").trim());
+    }
+
+    /**
+     * The limit to read a page with: the requested limit capped at getMaxLimit(), or 0 when nothing should be read.
+     */
+    public static int effectiveLimit(int limit) {
+        return limit <= 0 ? 0 : Math.min(limit, getMaxLimit());
+    }
+
+    /**
+     * Builds a page from rows read with a limit of limit + 1.  The extra row only signals that another page exists;
+     * it is dropped and the token is taken from the last row kept.
+     */
+    public static <T> DbTestKeysetPage<T> of(List<T> rows, int limit, String order, Function<T, byte[][]> keysOf) {
+        if (rows.size() <= limit) {
+            return new DbTestKeysetPage<>(rows, null);
+        }
+        List<T> content = new ArrayList<>(rows.subList(0, limit));
+        return new DbTestKeysetPage<>(content, encodeToken(order, keysOf.apply(content.get(limit - 1))));
+    }
+
+    /**
+     * The tag of a listing filtered on value: the order plus a SHA-256 digest of the value, so a token issued while
+     * paging one email, department or owner is rejected when replayed against another.  The digest keeps the filter
+     * value out of the token and the tag within its one byte length.
+     */
+    public static String scope(String order, byte[] value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value);
+            return order + "/" + Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String scope(String order, String value) {
+        return scope(order, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String encodeToken(String order, byte[]... keys) {
+        byte[] tag = order.getBytes(StandardCharsets.UTF_8);
+        int size = 3 + tag.length;
+        for (byte[] key : keys) {
+            size += 2 + key.length;
+        }
+        ByteBuffer buff = ByteBuffer.allocate(size);
+        buff.put(TOKEN_VERSION).put((byte) tag.length).put(tag).put((byte) keys.length);
+        for (byte[] key : keys) {
+            buff.putShort((short) key.length).put(key);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buff.array());
+    }
+
+    /**
+     * The keys encoded in a token issued for the given order.  Throws IllegalArgumentException for tokens that are
+     * malformed, of an unsupported version, were issued for another order, or carry a different number of keys.
+     */
+    public static byte[][] decodeToken(String order, String token, int keyCount) {
+        try {
+            ByteBuffer buff = ByteBuffer.wrap(Base64.getUrlDecoder().decode(token));
+            byte[] tag = order.getBytes(StandardCharsets.UTF_8);
+            byte version = buff.get();
+            if (version != TOKEN_VERSION) {
+                throw new IllegalArgumentException("Continuation token for " + order + " has unsupported version " + version);
+            }
+            byte[] tokenTag = new byte[buff.get() & 0xff];
+            buff.get(tokenTag);
+            if (!Arrays.equals(tag, tokenTag) || buff.get() != keyCount) {
+                throw new IllegalArgumentException("Continuation token was not issued for " + order);
+            }
+            byte[][] keys = new byte[keyCount][];
+            for (int i = 0; i < keyCount; i++) {
+                keys[i] = new byte[buff.getShort() & 0xffff];
+                buff.get(keys[i]);
+            }
+            if (buff.hasRemaining()) {
+                throw new IllegalArgumentException("Continuation token for " + order + " has trailing bytes");
+            }
+            return keys;
+        }
+        catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Continuation token for " + order + " is truncated", e);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.core.instrument.config.MeterFilter;
+import io.micrometer.core.instrument.distribution.DistributionStatisticConfig;
+import io.micrometer.jmx.JmxConfig;
+import io.micrometer.jmx.JmxMeterRegistry;
+import io.micrometer.prometheusmetrics.PrometheusConfig;
+import io.micrometer.prometheusmetrics.PrometheusMeterRegistry;
+
+/**
+ * The process-wide meter registry shared by the connection pools and transaction managers of every persistence unit.
+ * <p>
+ * Meters are published over JMX under the "dbtest" domain (unless metrics.jmx.enabled=false) and in the Prometheus
+ * text format, which startHttpEndpoint() serves at /metrics when metrics.http.port is configured.  The pool meters are
+ * HikariCP's own hikaricp.connections.* family tagged by pool name; the transaction meters are dbtest.transactions
+ * (begin to completion) and dbtest.transactions.completion (the commit or rollback call), tagged by manager and outcome.
+ */
+public final class DbTestMetrics {
+
+    public final static String HTTP_PATH = "/metrics";
+
+    private static final AtomicReference<CompositeMeterRegistry> refRegistry = new AtomicReference<>(null);
+    private static final AtomicReference<PrometheusMeterRegistry> refPrometheusRegistry = new AtomicReference<>(null);
+    private static final AtomicReference<HttpServer> refHttpServer = new AtomicReference<>(null);
+
+    private DbTestMetrics() {
+    }
+
+    public static MeterRegistry getRegistry() {
+        if (refRegistry.get() == null) {
+            Properties merged = DbTest.getMergedProperties();
+            CompositeMeterRegistry registry = new CompositeMeterRegistry();
+            // Latency meters publish histogram buckets for Prometheus and precomputed percentiles for JMX
+            registry.config().meterFilter(new MeterFilter() {
+                @Override
+                public DistributionStatisticConfig configure(Meter.Id id, DistributionStatisticConfig config) {
+                    if (id.getName().startsWith("hikaricp.connections.") || id.getName().startsWith("dbtest.transactions")) {
+                        return DistributionStatisticConfig.builder()
+                            .percentilesHistogram(true)
+                            .percentiles(0.5, 0.95, 0.99)
+                            .expiry(Duration.ofMinutes(1))
+                            .build()
+                            .merge(config);
+                    }
+                    return config;
+                }
+            });
+            PrometheusMeterRegistry prometheus = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+            registry.add(prometheus);
+            if (Boolean.parseBoolean(merged.getProperty("metrics.jmx.enabled", "true"))) {
+                registry.add(new JmxMeterRegistry(new JmxConfig() {
+                    @Override
+                    public String get(String key) {
+                        return null;
+                    }
+
+                    @Override
+                    public String domain() {
+                        return "dbtest";
+                    }
+                }, Clock.SYSTEM));
+            }
+            if (refRegistry.compareAndSet(null, registry)) {
+                refPrometheusRegistry.set(prometheus);
+            }
+            else {
+                registry.close();
+            }
+        }
+        return refRegistry.get();
+    }
+
+    /**
+     * The current value of every meter in the Prometheus text exposition format.
+     */
+    public static String scrape() {
+        getRegistry();
+        return refPrometheusRegistry.get().scrape();
+    }
+
+    /**
+     * Serve scrape() at /metrics on metrics.http.host (default 127.0.0.1) and metrics.http.port.
+     * Does nothing when metrics.http.port is unset or the endpoint is already running.
+     */
+    public static void startHttpEndpoint() throws IOException {
+        Properties merged = DbTest.getMergedProperties();
+        String port = merged.getProperty("metrics.http.port");
+        if (port == null || port.isEmpty() || refHttpServer.get() != null) {
+            return;
+        }
+        String host = merged.getProperty("metrics.http.host", "127.0.0.1");
+        HttpServer server = HttpServer.create(new InetSocketAddress(host, Integer.parseInt(port)), 0);
+        server.createContext(HTTP_PATH, DbTestMetrics::handleScrape);
+        if (refHttpServer.compareAndSet(null, server)) {
+            server.start();
+            System.err.println("DbTestMetrics serving http://" + host + ":" + server.getAddress().getPort() + HTTP_PATH);
+        }
+    }
+
+    public static void stopHttpEndpoint() {
+        HttpServer server = refHttpServer.getAndSet(null);
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    private static void handleScrape(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+        finally {
+            exchange.close();
+        }
+    }
+}
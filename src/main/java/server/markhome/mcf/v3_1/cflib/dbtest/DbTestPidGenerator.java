@@ -0,0 +1,97 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest;
+
+import java.util.Properties;
+
+import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
+
+/**
+ * Supplies the pids the create() paths assign to rows which arrive without one.
+ * <p>
+ * The random mode is the historical new CFLibDbKeyHash256(0), which spreads inserts uniformly over the primary key
+ * B-trees.  The time-ordered mode prefixes each pid with the current millisecond (DbTestTimeOrderedPidGenerator), so
+ * new rows land on the right-hand leaf pages of the pid indexes instead of splitting pages all over them.  Either can
+ * be fronted by a DbTestPidPool which pre-generates keys off the request path.
+ */
+@FunctionalInterface
+public interface DbTestPidGenerator extends AutoCloseable {
+
+    public final static String MODE_RANDOM = "random";
+    public final static String MODE_TIME_ORDERED = "time-ordered";
+
+    public final static DbTestPidGenerator RANDOM = () -> new CFLibDbKeyHash256(0);
+
+    CFLibDbKeyHash256 next();
+
+    /**
+     * Releases whatever the generator holds, such as the refill thread of a DbTestPidPool.  A no-op by default.
+     */
+    @Override
+    default void close() {
+    }
+
+    /**
+     * The generator of a unit as configured by &lt;unit&gt;.pid.mode (or pid.mode, default random) and
+     * &lt;unit&gt;.pid.pool-size (or pid.pool-size, default 0 for no pool).
+     */
+    public static DbTestPidGenerator forUnit(String unitName) {
+        Properties merged = DbTest.getMergedProperties();
+        String mode = merged.getProperty(unitName + ".pid.mode", merged.getProperty("pid.mode", MODE_RANDOM)).trim();
+        int poolSize = Integer.parseInt(merged.getProperty(unitName + ".pid.pool-size", merged.getProperty("pid.pool-size", "0")).trim());
+        DbTestPidGenerator generator;
+        if (MODE_RANDOM.equalsIgnoreCase(mode)) {
+            generator = RANDOM;
+        }
+        else if (MODE_TIME_ORDERED.equalsIgnoreCase(mode)) {
+            generator = new DbTestTimeOrderedPidGenerator();
+        }
+        else {
+            throw new IllegalArgumentException("Unknown pid mode \"" + mode + "\" for " + unitName + "; expected random or time-ordered");
+        }
+        if (poolSize > 0) {
+            return new DbTestPidPool(unitName, generator, poolSize);
+        }
+        return generator;
+    }
+}
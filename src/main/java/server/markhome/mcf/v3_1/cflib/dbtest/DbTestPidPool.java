@@ -0,0 +1,140 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
+
+/**
+ * A lock-free ring of pre-generated pids, refilled by a daemon thread, so the create() paths take a ready key instead
+ * of paying for SecureRandom on the request thread.
+ * <p>
+ * Consumers claim a slot by advancing the take index with a compare-and-set and then swap the key out of it; the
+ * refill thread writes only into slots already emptied.  Each key is handed out at most once.  When the ring is empty
+ * the caller generates its own key rather than waiting, and wakes the refill thread.  With a time-ordered generator
+ * pooled keys carry the time they were generated, so a pool trades a little index locality for latency; keep it small
+ * relative to the insert rate.
+ */
+public class DbTestPidPool implements DbTestPidGenerator {
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1L);
+
+    private final DbTestPidGenerator generator;
+    private final AtomicReferenceArray<CFLibDbKeyHash256> slots;
+    private final int mask;
+    private final AtomicLong takeIndex = new AtomicLong(0L);
+    private final AtomicLong misses = new AtomicLong(0L);
+    private final Thread refiller;
+    private volatile boolean running = true;
+
+    public DbTestPidPool(String unitName, DbTestPidGenerator generator, int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be at least 1, not " + poolSize);
+        }
+        this.generator = generator;
+        int capacity = poolSize <= 1 ? 1 : Integer.highestOneBit(poolSize - 1) << 1;
+        slots = new AtomicReferenceArray<>(capacity);
+        mask = capacity - 1;
+        refiller = Thread.ofPlatform().name(unitName + "-pid-pool").daemon(true).start(this::refill);
+    }
+
+    @Override
+    public CFLibDbKeyHash256 next() {
+        while (true) {
+            long index = takeIndex.get();
+            int slot = (int)index & mask;
+            CFLibDbKeyHash256 key = slots.get(slot);
+            if (key == null) {
+                misses.incrementAndGet();
+                LockSupport.unpark(refiller);
+                return generator.next();
+            }
+            if (takeIndex.compareAndSet(index, index + 1L)) {
+                key = slots.getAndSet(slot, null);
+                if (key != null) {
+                    return key;
+                }
+            }
+        }
+    }
+
+    /**
+     * The number of next() calls which found the pool empty and generated inline.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    private void refill() {
+        long putIndex = 0L;
+        while (running) {
+            int slot = (int)putIndex & mask;
+            if (slots.get(slot) == null) {
+                slots.set(slot, generator.next());
+                putIndex++;
+            }
+            else {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * Stops the refill thread and closes the underlying generator.  next() keeps working after close, generating inline
+     * once the remaining pooled keys are taken.
+     */
+    @Override
+    public void close() {
+        running = false;
+        LockSupport.unpark(refiller);
+        generator.close();
+    }
+}
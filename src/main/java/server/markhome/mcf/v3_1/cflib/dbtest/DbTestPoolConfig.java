@@ -0,0 +1,365 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.zaxxer.hikari.HikariConfig;
+
+import server.markhome.mcf.v3_1.cflib.inz.Inz;
+
+/**
+ * The typed HikariCP settings of one persistence unit, read from the merged properties.
+ * <p>
+ * Every key under hikari.* supplies the global default and every key under &lt;unit&gt;.hikari.* overrides it for
+ * that unit.  Keys may be spelled in kebab-case (maximum-pool-size) or camelCase (maximumPoolSize); keys under
+ * data-source.* (or dataSource.*) are passed through verbatim to the JDBC driver.  An unknown key, a malformed
+ * value, or the same setting spelled both ways with different values fails fast rather than being silently ignored.
+ * Timeouts are in milliseconds, as HikariCP expects.  Settings which are not configured keep the HikariCP default.
+ */
+public final class DbTestPoolConfig {
+
+    public final static int DEFAULT_MAXIMUM_POOL_SIZE = 10;
+    public final static int DEFAULT_MINIMUM_IDLE = 5;
+
+    private final static String DATA_SOURCE_PREFIX = "dataSource.";
+
+    private final static Set<String> KNOWN_SETTINGS = Set.of(
+        "maximumPoolSize",
+        "minimumIdle",
+        "poolName",
+        "autoCommit",
+        "readOnly",
+        "transactionIsolation",
+        "catalog",
+        "schema",
+        "connectionTimeout",
+        "idleTimeout",
+        "maxLifetime",
+        "keepaliveTime",
+        "validationTimeout",
+        "leakDetectionThreshold",
+        "initializationFailTimeout",
+        "connectionTestQuery",
+        "connectionInitSql",
+        "isolateInternalQueries",
+        "allowPoolSuspension",
+        "registerMbeans");
+
+    private final static Set<String> TRANSACTION_ISOLATIONS = Set.of(
+        "TRANSACTION_NONE",
+        "TRANSACTION_READ_UNCOMMITTED",
+        "TRANSACTION_READ_COMMITTED",
+        "TRANSACTION_REPEATABLE_READ",
+        "TRANSACTION_SERIALIZABLE");
+
+    private final String unit;
+    private final int maximumPoolSize;
+    private final int minimumIdle;
+    private final String poolName;
+    private final boolean autoCommit;
+    private final Boolean readOnly;
+    private final String transactionIsolation;
+    private final String catalog;
+    private final String schema;
+    private final Long connectionTimeout;
+    private final Long idleTimeout;
+    private final Long maxLifetime;
+    private final Long keepaliveTime;
+    private final Long validationTimeout;
+    private final Long leakDetectionThreshold;
+    private final Long initializationFailTimeout;
+    private final String connectionTestQuery;
+    private final String connectionInitSql;
+    private final Boolean isolateInternalQueries;
+    private final Boolean allowPoolSuspension;
+    private final Boolean registerMbeans;
+    private final Map<String, String> dataSourceProperties;
+
+    private DbTestPoolConfig(String unit, Map<String, String> settings, String defaultPoolName) {
+        this.unit = unit;
+        maximumPoolSize = parseInt(settings, "maximumPoolSize", DEFAULT_MAXIMUM_POOL_SIZE, 1);
+        minimumIdle = parseInt(settings, "minimumIdle", Math.min(DEFAULT_MINIMUM_IDLE, maximumPoolSize), 0);
+        if (minimumIdle > maximumPoolSize) {
+            throw new RuntimeException(String.format(Inz.x("cflib.dbtest.DbTestPoolConfig.MinimumIdleExceedsMaximum"), unit, minimumIdle, maximumPoolSize));
+        }
+        poolName = settings.getOrDefault("poolName", defaultPoolName);
+        // Defaults to false so the pool hands out connections already in transactional mode; see isAutoCommit()
+        autoCommit = parseBoolean(settings, "autoCommit") == Boolean.TRUE;
+        readOnly = parseBoolean(settings, "readOnly");
+        transactionIsolation = settings.get("transactionIsolation");
+        if (transactionIsolation != null && !TRANSACTION_ISOLATIONS.contains(transactionIsolation)) {
+            throw invalidValue("transactionIsolation", transactionIsolation);
+        }
+        catalog = settings.get("catalog");
+        schema = settings.get("schema");
+        connectionTimeout = parseMillis(settings, "connectionTimeout", 0L);
+        idleTimeout = parseMillis(settings, "idleTimeout", 0L);
+        maxLifetime = parseMillis(settings, "maxLifetime", 0L);
+        keepaliveTime = parseMillis(settings, "keepaliveTime", 0L);
+        validationTimeout = parseMillis(settings, "validationTimeout", 0L);
+        leakDetectionThreshold = parseMillis(settings, "leakDetectionThreshold", 0L);
+        initializationFailTimeout = parseMillis(settings, "initializationFailTimeout", Long.MIN_VALUE);
+        connectionTestQuery = settings.get("connectionTestQuery");
+        connectionInitSql = settings.get("connectionInitSql");
+        isolateInternalQueries = parseBoolean(settings, "isolateInternalQueries");
+        allowPoolSuspension = parseBoolean(settings, "allowPoolSuspension");
+        registerMbeans = parseBoolean(settings, "registerMbeans");
+
+        Map<String, String> dsProps = new TreeMap<>();
+        for (Map.Entry<String, String> entry : settings.entrySet()) {
+            if (entry.getKey().startsWith(DATA_SOURCE_PREFIX)) {
+                dsProps.put(entry.getKey().substring(DATA_SOURCE_PREFIX.length()), entry.getValue());
+            }
+        }
+        dataSourceProperties = Collections.unmodifiableMap(dsProps);
+    }
+
+    /**
+     * Read the pool settings of a unit (e.g. "secdb") from the merged properties, layering &lt;unit&gt;.hikari.* over hikari.*.
+     */
+    public static DbTestPoolConfig load(Properties merged, String unit, String defaultPoolName) {
+        Map<String, String> settings = collect(merged, "hikari.");
+        settings.putAll(collect(merged, unit + ".hikari."));
+        return new DbTestPoolConfig(unit, settings, defaultPoolName);
+    }
+
+    private static Map<String, String> collect(Properties merged, String prefix) {
+        Map<String, String> settings = new TreeMap<>();
+        Map<String, String> spelledAs = new TreeMap<>();
+        for (String key : merged.stringPropertyNames()) {
+            if (!key.startsWith(prefix)) {
+                continue;
+            }
+            String name = canonicalName(key.substring(prefix.length()));
+            if (name == null) {
+                throw new RuntimeException(String.format(Inz.x("cflib.dbtest.DbTestPoolConfig.UnknownKey"), key));
+            }
+            String value = merged.getProperty(key).trim();
+            if (value.isEmpty()) {
+                continue;
+            }
+            String previous = settings.put(name, value);
+            if (previous != null && !previous.equals(value)) {
+                throw new RuntimeException(String.format(Inz.x("cflib.dbtest.DbTestPoolConfig.ConflictingKeys"), spelledAs.get(name), key));
+            }
+            spelledAs.put(name, key);
+        }
+        return settings;
+    }
+
+    /**
+     * Map a kebab-case or camelCase key suffix onto its canonical camelCase setting name, or null if it is not a pool setting.
+     */
+    private static String canonicalName(String suffix) {
+        if (suffix.startsWith("data-source.") || suffix.startsWith(DATA_SOURCE_PREFIX)) {
+            String driverProperty = suffix.substring(suffix.indexOf('.') + 1);
+            return driverProperty.isEmpty() ? null : DATA_SOURCE_PREFIX + driverProperty;
+        }
+        StringBuilder name = new StringBuilder(suffix.length());
+        boolean upper = false;
+        for (int i = 0; i < suffix.length(); i++) {
+            char ch = suffix.charAt(i);
+            if (ch == '-') {
+                upper = true;
+            }
+            else if (upper) {
+                name.append(Character.toUpperCase(ch));
+                upper = false;
+            }
+            else {
+                name.append(ch);
+            }
+        }
+        String canonical = name.toString();
+        return KNOWN_SETTINGS.contains(canonical) ? canonical : null;
+    }
+
+    private RuntimeException invalidValue(String name, String value) {
+        return new RuntimeException(String.format(Inz.x("cflib.dbtest.DbTestPoolConfig.InvalidValue"), unit, name, value));
+    }
+
+    private int parseInt(Map<String, String> settings, String name, int defaultValue, int minimum) {
+        String value = settings.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int parsed = Integer.parseInt(value);
+            if (parsed < minimum) {
+                throw invalidValue(name, value);
+            }
+            return parsed;
+        }
+        catch (NumberFormatException e) {
+            throw invalidValue(name, value);
+        }
+    }
+
+    private Long parseMillis(Map<String, String> settings, String name, long minimum) {
+        String value = settings.get(name);
+        if (value == null) {
+            return null;
+        }
+        try {
+            long parsed = Long.parseLong(value);
+            if (parsed < minimum) {
+                throw invalidValue(name, value);
+            }
+            return parsed;
+        }
+        catch (NumberFormatException e) {
+            throw invalidValue(name, value);
+        }
+    }
+
+    private Boolean parseBoolean(Map<String, String> settings, String name) {
+        String value = settings.get(name);
+        if (value == null) {
+            return null;
+        }
+        if (value.equalsIgnoreCase("true")) {
+            return Boolean.TRUE;
+        }
+        if (value.equalsIgnoreCase("false")) {
+            return Boolean.FALSE;
+        }
+        throw invalidValue(name, value);
+    }
+
+    /**
+     * Copy the configured settings onto a HikariConfig; the JDBC driver, URL and credentials are set by the caller.
+     */
+    public void applyTo(HikariConfig config) {
+        config.setMaximumPoolSize(maximumPoolSize);
+        config.setMinimumIdle(minimumIdle);
+        config.setPoolName(poolName);
+        config.setAutoCommit(autoCommit);
+        if (readOnly != null) {
+            config.setReadOnly(readOnly);
+        }
+        if (transactionIsolation != null) {
+            config.setTransactionIsolation(transactionIsolation);
+        }
+        if (catalog != null) {
+            config.setCatalog(catalog);
+        }
+        if (schema != null) {
+            config.setSchema(schema);
+        }
+        if (connectionTimeout != null) {
+            config.setConnectionTimeout(connectionTimeout);
+        }
+        if (idleTimeout != null) {
+            config.setIdleTimeout(idleTimeout);
+        }
+        if (maxLifetime != null) {
+            config.setMaxLifetime(maxLifetime);
+        }
+        if (keepaliveTime != null) {
+            config.setKeepaliveTime(keepaliveTime);
+        }
+        if (validationTimeout != null) {
+            config.setValidationTimeout(validationTimeout);
+        }
+        if (leakDetectionThreshold != null) {
+            config.setLeakDetectionThreshold(leakDetectionThreshold);
+        }
+        if (initializationFailTimeout != null) {
+            config.setInitializationFailTimeout(initializationFailTimeout);
+        }
+        if (connectionTestQuery != null) {
+            config.setConnectionTestQuery(connectionTestQuery);
+        }
+        if (connectionInitSql != null) {
+            config.setConnectionInitSql(connectionInitSql);
+        }
+        if (isolateInternalQueries != null) {
+            config.setIsolateInternalQueries(isolateInternalQueries);
+        }
+        if (allowPoolSuspension != null) {
+            config.setAllowPoolSuspension(allowPoolSuspension);
+        }
+        if (registerMbeans != null) {
+            config.setRegisterMbeans(registerMbeans);
+        }
+        for (Map.Entry<String, String> entry : dataSourceProperties.entrySet()) {
+            config.addDataSourceProperty(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public int getMaximumPoolSize() {
+        return maximumPoolSize;
+    }
+
+    public int getMinimumIdle() {
+        return minimumIdle;
+    }
+
+    public String getPoolName() {
+        return poolName;
+    }
+
+    /**
+     * Whether pooled connections are in auto-commit mode.  This defaults to false: every unit runs its work under a
+     * JpaTransactionManager, so Hibernate may skip the per-transaction setAutoCommit() round trips.
+     */
+    public boolean isAutoCommit() {
+        return autoCommit;
+    }
+
+    /**
+     * The driver properties configured under data-source.*, keyed by the driver's own property name.
+     */
+    public Map<String, String> getDataSourceProperties() {
+        return dataSourceProperties;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.TreeMap;
+
+import javax.sql.DataSource;
+
+import org.hibernate.boot.Metadata;
+import org.hibernate.boot.spi.BootstrapContext;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.mapping.Column;
+import org.hibernate.mapping.ForeignKey;
+import org.hibernate.mapping.Index;
+import org.hibernate.mapping.Selectable;
+import org.hibernate.mapping.Table;
+import org.hibernate.mapping.UniqueKey;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+import org.hibernate.tool.hbm2ddl.SchemaUpdate;
+import org.hibernate.tool.schema.TargetType;
+
+/**
+ * Runs the hbm2ddl schema update of one persistence unit only when its mapped metadata has changed.
+ * <p>
+ * The fingerprint is a SHA-256 over every mapped table, column (with its SQL type, length, precision, scale,
+ * nullability and uniqueness), primary key, index, unique key and foreign key.  It is kept in the
+ * dbtest_schema_fingerprint table of the unit's schema.  When the stored fingerprint matches, boot skips the
+ * JDBC metadata introspection that hibernate.hbm2ddl.auto=update would otherwise repeat on every start.
+ * <p>
+ * A schema changed by hand behind the fingerprint's back is not detected; delete the unit's row (or set
+ * schema.update-mode=always) to force the next boot to run the full update.
+ */
+public class DbTestSchemaFingerprint implements Integrator {
+
+    public final static String TABLE_NAME = "dbtest_schema_fingerprint";
+
+    // Bump when the fingerprint input changes shape, so existing rows no longer match
+    private final static String FORMAT_VERSION = "1";
+
+    private final String unitName;
+    private final String schemaName;
+    private final DataSource dataSource;
+
+    public DbTestSchemaFingerprint(String unitName, String schemaName, DataSource dataSource) {
+        this.unitName = unitName;
+        this.schemaName = schemaName;
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public void integrate(Metadata metadata, BootstrapContext bootstrapContext, SessionFactoryImplementor sessionFactory) {
+        String fingerprint = computeFingerprint(metadata);
+        String stored = readFingerprint();
+        if (fingerprint.equals(stored)) {
+            System.err.println("DbTestSchemaFingerprint: " + unitName + " schema matches fingerprint " + fingerprint + ", skipping schema update");
+            return;
+        }
+        System.err.println("DbTestSchemaFingerprint: " + unitName + " fingerprint changed from " + stored + " to " + fingerprint + ", running schema update");
+        new SchemaUpdate()
+            .setHaltOnError(true)
+            .execute(EnumSet.of(TargetType.DATABASE), metadata, bootstrapContext.getServiceRegistry());
+        writeFingerprint(fingerprint);
+    }
+
+    @Override
+    public void disintegrate(SessionFactoryImplementor sessionFactory, SessionFactoryServiceRegistry serviceRegistry) {
+    }
+
+    /**
+     * The hex SHA-256 fingerprint of the tables the metadata maps, independent of mapping declaration order.
+     */
+    public String computeFingerprint(Metadata metadata) {
+        TreeMap<String, List<String>> tables = new TreeMap<>();
+        for (Table table : metadata.collectTableMappings()) {
+            if (!table.isPhysicalTable()) {
+                continue;
+            }
+            List<String> lines = new ArrayList<>();
+            for (Column column : table.getColumns()) {
+                lines.add("column " + column.getName()
+                    + " " + column.getSqlType(metadata)
+                    + " length=" + column.getLength()
+                    + " precision=" + column.getPrecision()
+                    + " scale=" + column.getScale()
+                    + " nullable=" + column.isNullable()
+                    + " unique=" + column.isUnique());
+            }
+            if (table.getPrimaryKey() != null) {
+                lines.add("pk " + columnNames(table.getPrimaryKey().getColumns()));
+            }
+            for (Index index : table.getIndexes().values()) {
+                List<String> selectables = new ArrayList<>();
+                for (Selectable selectable : index.getSelectables()) {
+                    selectables.add(selectable.getText());
+                }
+                lines.add("index " + index.getName() + " " + selectables);
+            }
+            for (UniqueKey uniqueKey : table.getUniqueKeys().values()) {
+                lines.add("unique " + uniqueKey.getName() + " " + columnNames(uniqueKey.getColumns()));
+            }
+            for (ForeignKey foreignKey : table.getForeignKeyCollection()) {
+                lines.add("fk " + foreignKey.getName() + " " + columnNames(foreignKey.getColumns())
+                    + " -> " + foreignKey.getReferencedTable().getQualifiedTableName());
+            }
+            lines.sort(null);
+            tables.put(table.getQualifiedTableName().toString(), lines);
+        }
+
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(("v" + FORMAT_VERSION + "\n").getBytes(StandardCharsets.UTF_8));
+            for (var entry : tables.entrySet()) {
+                digest.update(("table " + entry.getKey() + "\n").getBytes(StandardCharsets.UTF_8));
+                for (String line : entry.getValue()) {
+                    digest.update((line + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String columnNames(List<Column> columns) {
+        List<String> names = new ArrayList<>(columns.size());
+        for (Column column : columns) {
+            names.add(column.getName());
+        }
+        return names.toString();
+    }
+
+    private String qualifiedTableName() {
+        return (schemaName == null || schemaName.isEmpty()) ? TABLE_NAME : schemaName + "." + TABLE_NAME;
+    }
+
+    /**
+     * The stored fingerprint of the unit, or null if there is none yet (including when the table does not exist).
+     */
+    private String readFingerprint() {
+        try (Connection conn = dataSource.getConnection()) {
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT fingerprint FROM " + qualifiedTableName() + " WHERE unit_name = ?")) {
+                stmt.setString(1, unitName);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next() ? rs.getString(1) : null;
+                }
+            }
+            catch (SQLException e) {
+                return null;
+            }
+            finally {
+                if (!conn.getAutoCommit()) {
+                    conn.rollback();
+                }
+            }
+        }
+        catch (SQLException e) {
+            System.err.println("DbTestSchemaFingerprint: could not read the " + unitName + " fingerprint - " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Record the fingerprint after a successful update.  A failure only costs a full update on the next boot, so it is reported rather than thrown.
+     */
+    private void writeFingerprint(String fingerprint) {
+        try (Connection conn = dataSource.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("CREATE TABLE IF NOT EXISTS " + qualifiedTableName()
+                        + " (unit_name varchar(64) NOT NULL PRIMARY KEY, fingerprint varchar(64) NOT NULL, updated_at timestamp NOT NULL)");
+                }
+                try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM " + qualifiedTableName() + " WHERE unit_name = ?")) {
+                    stmt.setString(1, unitName);
+                    stmt.executeUpdate();
+                }
+                try (PreparedStatement stmt = conn.prepareStatement("INSERT INTO " + qualifiedTableName() + " (unit_name, fingerprint, updated_at) VALUES (?, ?, ?)")) {
+                    stmt.setString(1, unitName);
+                    stmt.setString(2, fingerprint);
+                    stmt.setTimestamp(3, Timestamp.valueOf(LocalDateTime.now()));
+                    stmt.executeUpdate();
+                }
+                conn.commit();
+            }
+            catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+            finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+        catch (SQLException e) {
+            System.err.println("DbTestSchemaFingerprint: could not store the " + unitName + " fingerprint - " + e.getMessage());
+        }
+    }
+}
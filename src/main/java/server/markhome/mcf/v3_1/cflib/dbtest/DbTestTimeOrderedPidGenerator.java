@@ -0,0 +1,96 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
+
+/**
+ * Generates 256-bit pids laid out in the spirit of UUIDv7:
+ * <ul>
+ * <li>bytes 0-5, the Unix epoch millisecond, big-endian, so byte order is creation order;</li>
+ * <li>bytes 6-7, a sequence number which keeps pids from the same millisecond ascending;</li>
+ * <li>bytes 8-31, 192 bits from a per-thread SecureRandom, so pids stay unguessable.</li>
+ * </ul>
+ * The timestamp and sequence advance together through one compare-and-set on a packed long.  When more than 65536
+ * pids are drawn within a millisecond the sequence carries into the timestamp, running the clock slightly ahead rather
+ * than repeating or reordering, and a clock that steps backwards is likewise ignored until it catches up.
+ */
+public class DbTestTimeOrderedPidGenerator implements DbTestPidGenerator {
+
+    private final AtomicLong lastStamp = new AtomicLong(0L);
+    /**
+     * One SecureRandom per thread, so concurrent create() calls do not contend on a single instance's lock.
+     */
+    private static final ThreadLocal<SecureRandom> random = ThreadLocal.withInitial(SecureRandom::new);
+
+    @Override
+    public CFLibDbKeyHash256 next() {
+        long stamp = nextStamp();
+        byte[] bytes = new byte[CFLibDbKeyHash256.HASH_LENGTH];
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte)stamp;
+            stamp >>>= 8;
+        }
+        byte[] tail = new byte[CFLibDbKeyHash256.HASH_LENGTH - 8];
+        random.get().nextBytes(tail);
+        System.arraycopy(tail, 0, bytes, 8, tail.length);
+        return new CFLibDbKeyHash256(bytes);
+    }
+
+    /**
+     * The next (millisecond &lt;&lt; 16 | sequence) value, strictly greater than every value returned before.
+     */
+    long nextStamp() {
+        while (true) {
+            long prior = lastStamp.get();
+            long now = System.currentTimeMillis() << 16;
+            long candidate = (now > prior) ? now : prior + 1L;
+            if (lastStamp.compareAndSet(prior, candidate)) {
+                return candidate;
+            }
+        }
+    }
+}
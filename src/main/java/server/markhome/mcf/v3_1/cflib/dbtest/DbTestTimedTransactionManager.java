@@ -0,0 +1,140 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import jakarta.persistence.EntityManagerFactory;
+
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+
+/**
+ * A JpaTransactionManager which times every physical transaction it begins.
+ * <p>
+ * dbtest.transactions measures begin to completion, and dbtest.transactions.completion measures the commit or
+ * rollback call alone, so a slow commit can be told apart from a slow unit of work.  Both are tagged with the
+ * manager bean name and an outcome of commit or rollback.  Participating (joined) transactions are not counted.
+ */
+public class DbTestTimedTransactionManager extends JpaTransactionManager {
+
+    private static final class Frame {
+        final long startNanos = System.nanoTime();
+        boolean committed = false;
+    }
+
+    // Suspended transactions complete after the ones started inside them, so a stack per thread keeps them apart
+    private final ThreadLocal<Deque<Frame>> frames = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private final Timer commitTimer;
+    private final Timer rollbackTimer;
+    private final Timer commitCallTimer;
+    private final Timer rollbackCallTimer;
+
+    public DbTestTimedTransactionManager(EntityManagerFactory emf, String managerName, MeterRegistry registry) {
+        super(emf);
+        commitTimer = transactionTimer(registry, "dbtest.transactions", managerName, "commit");
+        rollbackTimer = transactionTimer(registry, "dbtest.transactions", managerName, "rollback");
+        commitCallTimer = transactionTimer(registry, "dbtest.transactions.completion", managerName, "commit");
+        rollbackCallTimer = transactionTimer(registry, "dbtest.transactions.completion", managerName, "rollback");
+    }
+
+    private static Timer transactionTimer(MeterRegistry registry, String name, String managerName, String outcome) {
+        return Timer.builder(name)
+            .tag("manager", managerName)
+            .tag("outcome", outcome)
+            .register(registry);
+    }
+
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {
+        super.doBegin(transaction, definition);
+        frames.get().push(new Frame());
+    }
+
+    @Override
+    protected void doCommit(DefaultTransactionStatus status) {
+        long start = System.nanoTime();
+        try {
+            super.doCommit(status);
+        }
+        finally {
+            commitCallTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        Frame frame = frames.get().peek();
+        if (frame != null) {
+            frame.committed = true;
+        }
+    }
+
+    @Override
+    protected void doRollback(DefaultTransactionStatus status) {
+        long start = System.nanoTime();
+        try {
+            super.doRollback(status);
+        }
+        finally {
+            rollbackCallTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Override
+    protected void doCleanupAfterCompletion(Object transaction) {
+        try {
+            super.doCleanupAfterCompletion(transaction);
+        }
+        finally {
+            Frame frame = frames.get().poll();
+            if (frame != null) {
+                long elapsed = System.nanoTime() - frame.startNanos;
+                (frame.committed ? commitTimer : rollbackTimer).record(elapsed, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+}
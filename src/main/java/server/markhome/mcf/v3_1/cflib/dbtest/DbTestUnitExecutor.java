@@ -0,0 +1,184 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest;
+
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Runs service calls against one persistence unit on a dedicated executor, bounding the calls in flight to the size
+ * of the unit's connection pool.
+ * <p>
+ * In the default virtual mode every call gets its own virtual thread, and callers beyond the bound park on a fair
+ * semaphore, which unmounts them from their carrier, rather than queueing inside HikariCP for a connection.  Thousands
+ * of concurrent callers then cost a few kilobytes of stack each instead of a platform thread.  The platform mode runs
+ * the same calls on a fixed pool of platform threads sized to the bound, as a baseline.
+ * <p>
+ * A task must not submit to the same executor and wait for the result, since with every permit held that wait never ends.
+ */
+public class DbTestUnitExecutor implements AutoCloseable {
+
+    public final static String MODE_VIRTUAL = "virtual";
+    public final static String MODE_PLATFORM = "platform";
+
+    private final String unitName;
+    private final String mode;
+    private final int maxInFlight;
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger(0);
+
+    public DbTestUnitExecutor(String unitName, String mode, int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1, not " + maxInFlight);
+        }
+        this.unitName = unitName;
+        this.mode = mode;
+        this.maxInFlight = maxInFlight;
+        if (MODE_PLATFORM.equalsIgnoreCase(mode)) {
+            executor = Executors.newFixedThreadPool(maxInFlight, Thread.ofPlatform().name(unitName + "-worker-", 0).factory());
+        }
+        else if (MODE_VIRTUAL.equalsIgnoreCase(mode)) {
+            executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(unitName + "-vt-", 0).factory());
+        }
+        else {
+            throw new IllegalArgumentException("Unknown executor mode \"" + mode + "\" for " + unitName + "; expected virtual or platform");
+        }
+        permits = new Semaphore(maxInFlight, true);
+    }
+
+    /**
+     * The executor of a unit as configured by &lt;unit&gt;.executor.mode (or executor.mode, default virtual) and
+     * &lt;unit&gt;.executor.max-in-flight (default the pool's maximum size).  Its in-flight and waiting counts are
+     * published as the dbtest.executor.in-flight and dbtest.executor.waiting gauges.
+     */
+    public static DbTestUnitExecutor forUnit(String unitName, DbTestPoolConfig poolConfig) {
+        Properties merged = DbTest.getMergedProperties();
+        String mode = merged.getProperty(unitName + ".executor.mode", merged.getProperty("executor.mode", MODE_VIRTUAL));
+        int maxInFlight = Integer.parseInt(merged.getProperty(unitName + ".executor.max-in-flight",
+            merged.getProperty("executor.max-in-flight", Integer.toString(poolConfig.getMaximumPoolSize()))));
+        DbTestUnitExecutor unitExecutor = new DbTestUnitExecutor(unitName, mode, maxInFlight);
+        MeterRegistry registry = DbTestMetrics.getRegistry();
+        Gauge.builder("dbtest.executor.in-flight", unitExecutor, DbTestUnitExecutor::getInFlight)
+            .tag("unit", unitName)
+            .register(registry);
+        Gauge.builder("dbtest.executor.waiting", unitExecutor, DbTestUnitExecutor::getWaiting)
+            .tag("unit", unitName)
+            .register(registry);
+        return unitExecutor;
+    }
+
+    /**
+     * Run the task on this executor once a permit is free, completing the future with its result or failure.
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            waiting.incrementAndGet();
+            try {
+                permits.acquire();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.completeExceptionally(e);
+                return;
+            }
+            finally {
+                waiting.decrementAndGet();
+            }
+            try {
+                future.complete(task.call());
+            }
+            catch (Throwable th) {
+                future.completeExceptionally(th);
+            }
+            finally {
+                permits.release();
+            }
+        });
+        return future;
+    }
+
+    public CompletableFuture<Void> submit(Runnable task) {
+        return submit(() -> {
+            task.run();
+            return null;
+        });
+    }
+
+    public String getUnitName() {
+        return unitName;
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public int getInFlight() {
+        return maxInFlight - permits.availablePermits();
+    }
+
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    /**
+     * Stop accepting tasks and wait for the submitted ones to finish.
+     */
+    @Override
+    public void close() {
+        executor.close();
+    }
+}
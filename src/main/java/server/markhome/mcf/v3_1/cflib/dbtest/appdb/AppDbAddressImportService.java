@@ -0,0 +1,443 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest.appdb;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import server.markhome.mcf.v3_1.cflib.CFLibDbException;
+import server.markhome.mcf.v3_1.cflib.CFLibNullArgumentException;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTest;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestCsvReader;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestExportWriter;
+import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
+import server.markhome.mcf.v3_1.cflib.inz.Inz;
+
+import org.hibernate.Session;
+import org.postgresql.PGConnection;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+/**
+ * Bulk loads addresses from CSV through PostgreSQL's COPY protocol instead of one create() per row.
+ * <p>
+ * The input has a header line naming any of AppDbExportService.ADDRESS_COLUMNS (refuid and addrname are required), so
+ * an export can be loaded back as is.  Rows are validated in batches of appdb.import.batch-size (default 10000):
+ * <ul>
+ * <li>field count, required fields, the AppDbAddress.ADDR_* length limits, pid and timestamp syntax;</li>
+ * <li>(refuid, addrname) and pid uniqueness within the batch;</li>
+ * <li>refuid existence, with one AppDbKnownUserCache.findKnownUsers() probe per batch rather than one per row.</li>
+ * </ul>
+ * Each batch that passes is COPYed into a temporary staging table and moved into app_addr with
+ * INSERT ... SELECT ... ON CONFLICT DO NOTHING, in its own transaction, so a row that collides with an existing
+ * address is rejected rather than aborting the COPY.  Rejected rows are written to the rejects stream as CSV, with
+ * their input line and reason ahead of the original fields.
+ * <p>
+ * Missing pids are drawn from AppDbConfig.getPidGenerator(), missing timestamps default to the time of the load and
+ * missing created_by/updated_by to the auditPid argument.  Rows are loaded with native SQL, so the addresses of a
+ * finished import are visible to JPA queries but no SecDbUser cache or event sees them individually.
+ */
+@Service("AppDbAddressImportService")
+public class AppDbAddressImportService {
+
+    public record Result(long rowsRead, long rowsLoaded, long rowsRejected) {
+    }
+
+    private final static String[] COLUMNS = AppDbExportService.ADDRESS_COLUMNS;
+
+    private final static int COL_PID = 0;
+    private final static int COL_REFUID = 1;
+    private final static int COL_ADDRNAME = 2;
+    private final static int COL_CREATED_AT = 11;
+    private final static int COL_CREATED_BY = 12;
+    private final static int COL_UPDATED_AT = 13;
+    private final static int COL_UPDATED_BY = 14;
+
+    private final static int[] MAX_LENGTHS = { 0, 0, AppDbAddress.ADDR_NAME, AppDbAddress.ADDR_CONTACT, AppDbAddress.ADDR_APARTMENT,
+        AppDbAddress.ADDR_STREET, AppDbAddress.ADDR_STREET2, AppDbAddress.ADDR_CITY, AppDbAddress.ADDR_PROVINCE, AppDbAddress.ADDR_COUNTRY,
+        AppDbAddress.ADDR_POSTAL_CODE, 0, 0, 0, 0 };
+
+    private final static String COLUMN_LIST = String.join(", ", COLUMNS);
+
+    private final static String CREATE_STAGING_SQL =
+        "CREATE TEMP TABLE IF NOT EXISTS app_addr_import (LIKE appdb.app_addr INCLUDING DEFAULTS) ON COMMIT DELETE ROWS";
+
+    private final static String COPY_STAGING_SQL =
+        "COPY app_addr_import (" + COLUMN_LIST + ") FROM STDIN WITH (FORMAT csv, HEADER true)";
+
+    private final static String MOVE_STAGING_SQL =
+        "INSERT INTO appdb.app_addr (" + COLUMN_LIST + ")"
+        + " SELECT " + COLUMN_LIST + " FROM app_addr_import"
+        + " ON CONFLICT DO NOTHING"
+        + " RETURNING pid";
+
+    private final static HexFormat HEX = HexFormat.of();
+
+    @PersistenceContext(unitName = AppDbConfig.persistenceUnitName)
+    private EntityManager appEntityManager;
+
+    @Autowired
+    @Qualifier("appTransactionManager")
+    private PlatformTransactionManager appTransactionManager;
+
+    @Autowired
+    private AppDbKnownUserCache appDbKnownUserCache;
+
+    /**
+     * One parsed input row: its input line and fields for the rejects file, and the values to COPY.
+     */
+    private record Row(long line, String[] fields, String[] values, CFLibDbKeyHash256 refUID) {
+    }
+
+    public static int getBatchSize() {
+        return Integer.parseInt(DbTest.getMergedProperties().getProperty("appdb.import.batch-size", "10000").trim());
+    }
+
+    public Result importAddresses(Path csv, Path rejects, CFLibDbKeyHash256 auditPid) {
+        if (csv == null) {
+            throw new CFLibNullArgumentException(AppDbAddressImportService.class, "importAddresses", 1, "csv");
+        }
+        if (rejects == null) {
+            throw new CFLibNullArgumentException(AppDbAddressImportService.class, "importAddresses", 2, "rejects");
+        }
+        try (InputStream in = Files.newInputStream(csv);
+            OutputStream out = Files.newOutputStream(rejects)) {
+            return importAddresses(in, out, auditPid);
+        }
+        catch (IOException e) {
+            throw rethrow("importAddresses", e);
+        }
+    }
+
+    public Result importAddresses(InputStream csv, OutputStream rejects, CFLibDbKeyHash256 auditPid) {
+        if (csv == null) {
+            throw new CFLibNullArgumentException(AppDbAddressImportService.class, "importAddresses", 1, "csv");
+        }
+        if (rejects == null) {
+            throw new CFLibNullArgumentException(AppDbAddressImportService.class, "importAddresses", 2, "rejects");
+        }
+        if (auditPid == null || auditPid.isNull()) {
+            throw new CFLibNullArgumentException(AppDbAddressImportService.class, "importAddresses", 3, "auditPid");
+        }
+        if (!AppDbConfig.isPostgreSQL()) {
+            throw new RuntimeException(Inz.x("cflib.dbtest.AppDbAddressImportService.RequiresPostgreSQL"));
+        }
+        try {
+            DbTestCsvReader reader = new DbTestCsvReader(csv);
+            String[] header = reader.readRecord();
+            if (header == null) {
+                return new Result(0L, 0L, 0L);
+            }
+            int[] mapping = mapHeader(header);
+            String[] rejectColumns = new String[header.length + 2];
+            rejectColumns[0] = "line";
+            rejectColumns[1] = "reason";
+            System.arraycopy(header, 0, rejectColumns, 2, header.length);
+            int batchSize = Math.max(1, getBatchSize());
+            String auditHex = toByteaText(auditPid.getBytes());
+            long rowsRead = 0L;
+            long rowsLoaded = 0L;
+            try (DbTestExportWriter rejectWriter = new DbTestExportWriter(rejects, DbTestExportWriter.Format.CSV, rejectColumns)) {
+                List<Row> batch = new ArrayList<>(batchSize);
+                String[] fields;
+                while ((fields = reader.readRecord()) != null) {
+                    rowsRead++;
+                    Row row = parse(reader.getRecordLine(), header, fields, mapping, auditHex, rejectWriter);
+                    if (row != null) {
+                        batch.add(row);
+                    }
+                    if (batch.size() >= batchSize) {
+                        rowsLoaded += loadBatch(batch, rejectWriter);
+                        batch.clear();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    rowsLoaded += loadBatch(batch, rejectWriter);
+                }
+                return new Result(rowsRead, rowsLoaded, rejectWriter.getRowCount());
+            }
+        }
+        catch (IOException e) {
+            throw rethrow("importAddresses", e);
+        }
+    }
+
+    /**
+     * The input column index of each of COLUMNS, or -1 where the input does not supply it.
+     */
+    private static int[] mapHeader(String[] header) {
+        int[] mapping = new int[COLUMNS.length];
+        Arrays.fill(mapping, -1);
+        for (int i = 0; i < header.length; i++) {
+            int col = indexOfColumn(header[i].trim());
+            if (col < 0) {
+                throw new RuntimeException(String.format(Inz.x("cflib.dbtest.AppDbAddressImportService.UnknownColumn"), header[i], COLUMN_LIST));
+            }
+            mapping[col] = i;
+        }
+        for (int col : new int[] { COL_REFUID, COL_ADDRNAME }) {
+            if (mapping[col] < 0) {
+                throw new RuntimeException(String.format(Inz.x("cflib.dbtest.AppDbAddressImportService.MissingColumn"), COLUMNS[col]));
+            }
+        }
+        return mapping;
+    }
+
+    private static int indexOfColumn(String name) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Validates one input row against the column limits, returning the row to load or null once it has been rejected.
+     */
+    private static Row parse(long line, String[] header, String[] fields, int[] mapping, String auditHex, DbTestExportWriter rejectWriter) throws IOException {
+        if (fields.length != header.length) {
+            reject(rejectWriter, line, "expected " + header.length + " fields, found " + fields.length, fields, header.length);
+            return null;
+        }
+        String[] values = new String[COLUMNS.length];
+        for (int col = 0; col < COLUMNS.length; col++) {
+            String value = mapping[col] < 0 ? null : fields[mapping[col]];
+            values[col] = value == null || value.isEmpty() ? null : value;
+        }
+        String now = LocalDateTime.now().toString();
+        String reason = null;
+        CFLibDbKeyHash256 refUID = null;
+        for (int col = 0; col < COLUMNS.length && reason == null; col++) {
+            String value = values[col];
+            switch (col) {
+                case COL_PID:
+                case COL_CREATED_BY:
+                case COL_UPDATED_BY:
+                    if (value == null) {
+                        values[col] = col == COL_PID ? toByteaText(AppDbConfig.getPidGenerator().next().getBytes()) : auditHex;
+                    }
+                    else {
+                        byte[] bytes = parseKey(value);
+                        if (bytes == null) {
+                            reason = COLUMNS[col] + " is not a " + CFLibDbKeyHash256.HASH_LENGTH + "-byte hex key";
+                        }
+                        else {
+                            values[col] = toByteaText(bytes);
+                        }
+                    }
+                    break;
+                case COL_REFUID:
+                    byte[] refBytes = value == null ? null : parseKey(value);
+                    if (refBytes == null) {
+                        reason = value == null ? "refuid is required" : "refuid is not a " + CFLibDbKeyHash256.HASH_LENGTH + "-byte hex key";
+                    }
+                    else {
+                        refUID = new CFLibDbKeyHash256(refBytes);
+                        values[col] = toByteaText(refBytes);
+                    }
+                    break;
+                case COL_CREATED_AT:
+                case COL_UPDATED_AT:
+                    if (value == null) {
+                        values[col] = now;
+                    }
+                    else {
+                        try {
+                            values[col] = LocalDateTime.parse(value.trim().replace(' ', 'T')).toString();
+                        }
+                        catch (DateTimeParseException e) {
+                            reason = COLUMNS[col] + " is not an ISO local date-time";
+                        }
+                    }
+                    break;
+                default:
+                    if (col == COL_ADDRNAME && value == null) {
+                        reason = "addrname is required";
+                    }
+                    else if (value != null) {
+                        // varchar(n) limits count characters, so a supplementary character is one, not two chars
+                        int length = value.codePointCount(0, value.length());
+                        if (length > MAX_LENGTHS[col]) {
+                            reason = COLUMNS[col] + " length " + length + " exceeds " + MAX_LENGTHS[col];
+                        }
+                    }
+                    break;
+            }
+        }
+        if (reason != null) {
+            reject(rejectWriter, line, reason, fields, header.length);
+            return null;
+        }
+        return new Row(line, fields, values, refUID);
+    }
+
+    /**
+     * Rejects the rows of a batch which repeat a pid or (refuid, addrname) of an earlier row or reference an unknown
+     * user, then COPYs the rest and rejects whatever the database declined as a conflict.  Returns the rows loaded.
+     */
+    private long loadBatch(List<Row> batch, DbTestExportWriter rejectWriter) throws IOException {
+        Set<CFLibDbKeyHash256> refUIDs = new HashSet<>();
+        for (Row row : batch) {
+            refUIDs.add(row.refUID());
+        }
+        Set<CFLibDbKeyHash256> knownUsers = appDbKnownUserCache.findKnownUsers(refUIDs);
+        Set<String> names = new HashSet<>();
+        Map<String, Row> byPid = new LinkedHashMap<>();
+        ByteArrayOutputStream copyData = new ByteArrayOutputStream(batch.size() * 256);
+        try (DbTestExportWriter copyWriter = new DbTestExportWriter(copyData, DbTestExportWriter.Format.CSV, COLUMNS)) {
+            for (Row row : batch) {
+                String[] values = row.values();
+                if (!knownUsers.contains(row.refUID())) {
+                    reject(rejectWriter, row.line(), "refuid does not identify an existing user", row.fields(), row.fields().length);
+                }
+                else if (byPid.containsKey(values[COL_PID])) {
+                    reject(rejectWriter, row.line(), "pid repeats line " + byPid.get(values[COL_PID]).line(), row.fields(), row.fields().length);
+                }
+                else if (!names.add(values[COL_REFUID] + '\u0000' + values[COL_ADDRNAME])) {
+                    reject(rejectWriter, row.line(), "(refuid, addrname) repeats an earlier row", row.fields(), row.fields().length);
+                }
+                else {
+                    byPid.put(values[COL_PID], row);
+                    copyWriter.writeRow((Object[]) values);
+                }
+            }
+        }
+        if (byPid.isEmpty()) {
+            return 0L;
+        }
+        byte[] data = copyData.toByteArray();
+        TransactionTemplate txn = new TransactionTemplate(appTransactionManager);
+        Set<String> loaded = txn.execute(status -> appEntityManager.unwrap(Session.class).doReturningWork(connection -> copyBatch(connection, data)));
+        for (Map.Entry<String, Row> entry : byPid.entrySet()) {
+            if (!loaded.contains(entry.getKey())) {
+                Row row = entry.getValue();
+                reject(rejectWriter, row.line(), "conflicts with an existing address (pid, addrname or (refuid, addrname))", row.fields(), row.fields().length);
+            }
+        }
+        return loaded.size();
+    }
+
+    private static Set<String> copyBatch(Connection connection, byte[] data) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute(CREATE_STAGING_SQL);
+        }
+        try {
+            connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_STAGING_SQL, new ByteArrayInputStream(data));
+        }
+        catch (IOException e) {
+            throw new SQLException(e.getMessage(), e);
+        }
+        Set<String> loaded = new HashSet<>();
+        try (PreparedStatement stmt = connection.prepareStatement(MOVE_STAGING_SQL);
+            ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                loaded.add(toByteaText(rs.getBytes(1)));
+            }
+        }
+        return loaded;
+    }
+
+    private static void reject(DbTestExportWriter rejectWriter, long line, String reason, String[] fields, int width) throws IOException {
+        Object[] row = new Object[width + 2];
+        row[0] = line;
+        row[1] = reason;
+        System.arraycopy(fields, 0, row, 2, Math.min(width, fields.length));
+        rejectWriter.writeRow(row);
+    }
+
+    /**
+     * Parses a key written as hex digits, optionally with PostgreSQL's \x bytea prefix; null if it is not a full key.
+     */
+    private static byte[] parseKey(String value) {
+        String hex = value.trim();
+        if (hex.startsWith("\\x")) {
+            hex = hex.substring(2);
+        }
+        if (hex.length() != 2 * CFLibDbKeyHash256.HASH_LENGTH) {
+            return null;
+        }
+        try {
+            return HEX.parseHex(hex);
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String toByteaText(byte[] bytes) {
+        return "\\x" + HEX.formatHex(bytes);
+    }
+
+    private static CFLibDbException rethrow(String methName, Exception e) {
+        System.err.println(String.format(Inz.x("cflib.dbtest.AppDbAddressImportService.rethrow"), e.getClass().getName(), methName, e.getLocalizedMessage()));
+        e.printStackTrace(System.err);
+        return new CFLibDbException(AppDbAddressImportService.class, methName, String.format(Inz.s("cflib.dbtest.AppDbAddressImportService.rethrow"), e.getClass().getName(), methName, e.getMessage()), methName, String.format(Inz.x("cflib.dbtest.AppDbAddressImportService.rethrow"), e.getClass().getName(), methName, e.getLocalizedMessage()), e);
+    }
+}
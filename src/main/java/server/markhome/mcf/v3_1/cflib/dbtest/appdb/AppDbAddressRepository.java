@@ -43,10 +43,51 @@
 package server.markhome.mcf.v3_1.cflib.dbtest.appdb;
 
 import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import jakarta.persistence.QueryHint;
 
 
 public interface AppDbAddressRepository extends JpaRepository<AppDbAddress, CFLibDbKeyHash256> {
     public List<AppDbAddress> findByRefUID(CFLibDbKeyHash256 refUID);
+    public Optional<AppDbAddress> findByRefUIDAndAddressName(CFLibDbKeyHash256 refUID, String addressName);
+
+    /**
+     * First and following keyset pages of one user's addresses in name order, walking app_addr_axname.
+     */
+    public List<AppDbAddress> findByRefUIDOrderByAddressNameAsc(CFLibDbKeyHash256 refUID, Limit limit);
+    public List<AppDbAddress> findByRefUIDAndAddressNameGreaterThanOrderByAddressNameAsc(CFLibDbKeyHash256 refUID, String addressName, Limit limit);
+
+    /**
+     * First keyset page of all addresses in (refuid, addrname) order.
+     */
+    @Query(value = "SELECT * FROM appdb.app_addr ORDER BY refuid, addrname LIMIT :limit", nativeQuery = true)
+    public List<AppDbAddress> findPageOrderByRefUIDName(@Param("limit") int limit);
+
+    /**
+     * Keyset page following the (refUID, addressName) of the last address of the previous page, walking
+     * app_addr_axname with a row-value comparison instead of an OFFSET scan.
+     */
+    @Query(value = "SELECT * FROM appdb.app_addr WHERE (refuid, addrname) > (:refUID, :addressName)"
+        + " ORDER BY refuid, addrname LIMIT :limit", nativeQuery = true)
+    public List<AppDbAddress> findPageOrderByRefUIDNameAfter(@Param("refUID") byte[] refUID, @Param("addressName") String addressName, @Param("limit") int limit);
+
+    /**
+     * Streams every address in pid order through a server-side cursor.  Must be consumed and closed within a
+     * transaction, detaching each row once it has been used.
+     */
+    @QueryHints({
+        @QueryHint(name = "org.hibernate.fetchSize", value = "1000"),
+        @QueryHint(name = "org.hibernate.readOnly", value = "true"),
+        @QueryHint(name = "org.hibernate.cacheMode", value = "IGNORE")
+    })
+    @Query("select a from AppDbAddress a order by a.pid")
+    public Stream<AppDbAddress> streamAll();
 }
@@ -42,29 +42,36 @@
  */
 package server.markhome.mcf.v3_1.cflib.dbtest.appdb;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import server.markhome.mcf.v3_1.cflib.CFLibDbException;
 import server.markhome.mcf.v3_1.cflib.CFLibNullArgumentException;
 import server.markhome.mcf.v3_1.cflib.CFLibUnresolvedRelationException;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestBatchInserter;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestKeysetPage;
 import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbSessionService;
 import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbUser;
-import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbUserService;
 import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
 import server.markhome.mcf.v3_1.cflib.inz.Inz;
 
+import org.hibernate.query.NativeQuery;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.data.domain.Example;
-import org.springframework.data.domain.ExampleMatcher;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
 
+import jakarta.persistence.EntityManager;
 import jakarta.persistence.NoResultException;
+import jakarta.persistence.PersistenceContext;
 
 @Service("AppDbAddressService")
 public class AppDbAddressService {
@@ -73,11 +80,35 @@ public class AppDbAddressService {
     @Qualifier("appEntityManagerFactory")
     private LocalContainerEntityManagerFactoryBean appEntityManagerFactory;
     
+    @PersistenceContext(unitName = AppDbConfig.persistenceUnitName)
+    private EntityManager appEntityManager;
+
     @Autowired
     private AppDbAddressRepository appDbAddressRepository;
 
+    private static final String ADDRESS_COLUMNS = "pid, refuid, addrname, addrcontact, addrapt, addrstreet, addrstreet2, addrcity,"
+        + " addrprovince, addrcountry, addrpostalcode, created_at, created_by, updated_at, updated_by";
+
+    /**
+     * The orders of the keyset listings, which tag their continuation tokens.
+     */
+    public final static String PAGE_ORDER_REFUID_NAME = "app_addr.refuid.addrname";
+    public final static String PAGE_ORDER_NAME = "app_addr.addrname";
+
+    private static final String UPSERT_ADDRESS_SQL =
+        "WITH ins_addr AS ("
+        + " INSERT INTO appdb.app_addr (" + ADDRESS_COLUMNS + ")"
+        + " VALUES (:pid, :refUID, :addressName, :addressContact, :addressApartment, :addressStreet, :addressStreet2, :addressCity,"
+        + " :addressProvince, :addressCountry, :addressPostalCode, :createdAt, :createdBy, :updatedAt, :updatedBy)"
+        + " ON CONFLICT (pid) DO NOTHING"
+        + " RETURNING " + ADDRESS_COLUMNS + ")"
+        + " SELECT " + ADDRESS_COLUMNS + " FROM ins_addr"
+        + " UNION ALL"
+        + " SELECT " + ADDRESS_COLUMNS + " FROM appdb.app_addr"
+        + " WHERE pid = :pid AND NOT EXISTS (SELECT 1 FROM ins_addr)";
+
     @Autowired
-    private SecDbUserService secDbUserService;
+    private AppDbKnownUserCache appDbKnownUserCache;
 
     @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "appTransactionManager")
     public AppDbAddress find(CFLibDbKeyHash256 pid) {
@@ -100,22 +131,55 @@ public class AppDbAddressService {
         return appDbAddressRepository.findByRefUID(user.getPid());
     }
 
+    /**
+     * Keyset page of all addresses in (refUID, addressName) order.  Pass a null token for the first page and the
+     * nextToken of each page for the one after it.
+     */
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "appTransactionManager")
+    public DbTestKeysetPage<AppDbAddress> findPage(String token, int limit) {
+        int effective = DbTestKeysetPage.effectiveLimit(limit);
+        if (effective == 0) {
+            return DbTestKeysetPage.empty();
+        }
+        List<AppDbAddress> rows;
+        if (token == null) {
+            rows = appDbAddressRepository.findPageOrderByRefUIDName(effective + 1);
+        }
+        else {
+            byte[][] after = DbTestKeysetPage.decodeToken(PAGE_ORDER_REFUID_NAME, token, 2);
+            rows = appDbAddressRepository.findPageOrderByRefUIDNameAfter(after[0], new String(after[1], StandardCharsets.UTF_8), effective + 1);
+        }
+        return DbTestKeysetPage.of(rows, effective, PAGE_ORDER_REFUID_NAME,
+            a -> new byte[][] { a.getRefUID().getBytes(), a.getAddressName().getBytes(StandardCharsets.UTF_8) });
+    }
+
+    /**
+     * Keyset page of one user's addresses in addressName order.  The token is scoped to refUID.
+     */
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "appTransactionManager")
+    public DbTestKeysetPage<AppDbAddress> findPageByRefUID(CFLibDbKeyHash256 refUID, String token, int limit) {
+        int effective = DbTestKeysetPage.effectiveLimit(limit);
+        if (refUID == null || refUID.isNull() || effective == 0) {
+            return DbTestKeysetPage.empty();
+        }
+        String tag = DbTestKeysetPage.scope(PAGE_ORDER_NAME, refUID.getBytes());
+        List<AppDbAddress> rows;
+        if (token == null) {
+            rows = appDbAddressRepository.findByRefUIDOrderByAddressNameAsc(refUID, Limit.of(effective + 1));
+        }
+        else {
+            String after = new String(DbTestKeysetPage.decodeToken(tag, token, 1)[0], StandardCharsets.UTF_8);
+            rows = appDbAddressRepository.findByRefUIDAndAddressNameGreaterThanOrderByAddressNameAsc(refUID, after, Limit.of(effective + 1));
+        }
+        return DbTestKeysetPage.of(rows, effective, tag, a -> new byte[][] { a.getAddressName().getBytes(StandardCharsets.UTF_8) });
+    }
+
     @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "appTransactionManager")
     public AppDbAddress findByRefUIDName(CFLibDbKeyHash256 refUID, String addressName) {
         if (refUID == null || refUID.isNull() || addressName == null || addressName.isEmpty()) {
             return null;
         }
-        AppDbAddress probe = new AppDbAddress();
-        probe.setRefUID(refUID);
-        probe.setAddressName(addressName);
-
-        ExampleMatcher matcher = ExampleMatcher.matching()
-            .withIgnoreNullValues()
-            .withMatcher("refuid, addrname", ExampleMatcher.GenericPropertyMatchers.exact());
-
-        Example<AppDbAddress> example = Example.of(probe, matcher);
-
-        return appDbAddressRepository.findOne(example).orElse(null);
+        return appDbAddressRepository.findByRefUIDAndAddressName(refUID, addressName).orElse(null);
     }
 
     @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "appTransactionManager")
@@ -123,17 +187,7 @@ public class AppDbAddressService {
         if (user == null || user.getPid() == null || user.getPid().isNull() || addressName == null || addressName.isEmpty()) {
             return null;
         }
-        AppDbAddress probe = new AppDbAddress();
-        probe.setRefUID(user.getPid());
-        probe.setAddressName(addressName);
-
-        ExampleMatcher matcher = ExampleMatcher.matching()
-            .withIgnoreNullValues()
-            .withMatcher("refuid, addrname", ExampleMatcher.GenericPropertyMatchers.exact());
-
-        Example<AppDbAddress> example = Example.of(probe, matcher);
-
-        return appDbAddressRepository.findOne(example).orElse(null);
+        return appDbAddressRepository.findByRefUIDAndAddressName(user.getPid(), addressName).orElse(null);
     }
 
     @Transactional(propagation = Propagation.REQUIRED, rollbackFor = NoResultException.class, transactionManager = "appTransactionManager")
@@ -144,8 +198,7 @@ public class AppDbAddressService {
         if (data.getRefUID() == null || data.getRefUID().isNull()) {
             throw new CFLibNullArgumentException(AppDbAddressService.class, "create", 1, "data.refUID");
         }
-        SecDbUser user = secDbUserService.find(data.getRefUID());
-        if (user == null) {
+        if (!appDbKnownUserCache.isKnownUser(data.getRefUID())) {
             throw new CFLibUnresolvedRelationException(AppDbAddressService.class, "create", Inz.s("cflib.RelationType.Parent"), Inz.x("cflib.RelationType.Parent"), "refUID", "refUID", "SecDbUser", "SecDbUser", new Object() {
                 public CFLibDbKeyHash256 uid = data.getRefUID();
             });
@@ -154,13 +207,17 @@ public class AppDbAddressService {
         boolean generatedPid = false;
         try {
             if (data.getPid() == null) {
-                data.setPid(new CFLibDbKeyHash256(0));
+                data.setPid(AppDbConfig.getPidGenerator().next());
                 generatedPid = true;
             }
             LocalDateTime now = LocalDateTime.now();
             data.setCreatedAt(now);
             data.setUpdatedAt(now);
 
+            if (AppDbConfig.isUpsertCreate()) {
+                return upsert(data);
+            }
+
             // Check if already exists
             if (data.getPid() != null && appDbAddressRepository.existsById(data.getPid())) {
                 return appDbAddressRepository.findById(data.getPid()).orElse(null);
@@ -178,6 +235,86 @@ public class AppDbAddressService {
         }
     }
 
+    /**
+     * Bulk equivalent of create(), returning the persisted addresses in input order.
+     * Pids that already exist resolve to the existing row as they do for create(), but the existence check is one
+     * IN query per JDBC batch and the inserts are flushed as ordered JDBC batches, with the persistence context
+     * cleared after each batch so memory stays bounded.  Entities the caller loaded earlier in the same transaction
+     * are detached by those clears.
+     */
+    @Transactional(propagation = Propagation.REQUIRED, rollbackFor = NoResultException.class, transactionManager = "appTransactionManager")
+    public List<AppDbAddress> createAll(Collection<? extends AppDbAddress> data) {
+        List<AppDbAddress> created = new ArrayList<>(data == null ? 0 : data.size());
+        if (data == null || data.isEmpty()) {
+            return created;
+        }
+        // Validate every distinct refUID up front, probing secdb only for the ones not already known
+        Set<CFLibDbKeyHash256> refUIDs = new LinkedHashSet<>();
+        for (AppDbAddress address : data) {
+            if (address == null) {
+                continue;
+            }
+            if (address.getRefUID() == null || address.getRefUID().isNull()) {
+                throw new CFLibNullArgumentException(AppDbAddressService.class, "createAll", 1, "data.refUID");
+            }
+            refUIDs.add(address.getRefUID());
+        }
+        Set<CFLibDbKeyHash256> knownUsers = appDbKnownUserCache.findKnownUsers(refUIDs);
+        for (CFLibDbKeyHash256 refUID : refUIDs) {
+            if (!knownUsers.contains(refUID)) {
+                throw new CFLibUnresolvedRelationException(AppDbAddressService.class, "createAll", Inz.s("cflib.RelationType.Parent"), Inz.x("cflib.RelationType.Parent"), "refUID", "refUID", "SecDbUser", "SecDbUser", new Object() {
+                    public CFLibDbKeyHash256 uid = refUID;
+                });
+            }
+        }
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            return new DbTestBatchInserter<AppDbAddress>(appEntityManager, AppDbConfig.getJdbcBatchSize(), AppDbAddress::getPid, appDbAddressRepository::findAllById)
+                .prepare(address -> {
+                    if (address.getPid() == null) {
+                        address.setPid(AppDbConfig.getPidGenerator().next());
+                    }
+                    address.setCreatedAt(now);
+                    address.setUpdatedAt(now);
+                })
+                .insertAll(data);
+        } catch (Exception e) {
+            System.err.println(String.format(Inz.x("cflib.dbtest.AppDbAddressService.rethrow"), e.getClass().getName(), "createAll", e.getLocalizedMessage()));
+            e.printStackTrace(System.err);
+            throw new CFLibDbException(AppDbAddressService.class, "createAll", String.format(Inz.s("cflib.dbtest.AppDbAddressService.rethrow"), e.getClass().getName(), e.getMessage()), "createAll", String.format(Inz.x("cflib.dbtest.AppDbAddressService.rethrow"), e.getClass().getName(), "createAll", e.getLocalizedMessage()), e);
+        }
+    }
+
+    /**
+     * Inserts the address with INSERT ... ON CONFLICT (pid) DO NOTHING and reads back either the inserted row or the
+     * existing one in the same statement, falling back to findById() when a concurrent insert won the race.
+     */
+    private AppDbAddress upsert(AppDbAddress data) {
+        @SuppressWarnings("unchecked")
+        NativeQuery<AppDbAddress> query = appEntityManager.createNativeQuery(UPSERT_ADDRESS_SQL, AppDbAddress.class).unwrap(NativeQuery.class);
+        query.addSynchronizedEntityClass(AppDbAddress.class);
+        query.setParameter("pid", data.getPid().getBytes(), byte[].class);
+        query.setParameter("refUID", data.getRefUID().getBytes(), byte[].class);
+        query.setParameter("addressName", data.getAddressName(), String.class);
+        query.setParameter("addressContact", data.getAddressContact(), String.class);
+        query.setParameter("addressApartment", data.getAddressApartment(), String.class);
+        query.setParameter("addressStreet", data.getAddressStreet(), String.class);
+        query.setParameter("addressStreet2", data.getAddressStreet2(), String.class);
+        query.setParameter("addressCity", data.getAddressCity(), String.class);
+        query.setParameter("addressProvince", data.getAddressProvince(), String.class);
+        query.setParameter("addressCountry", data.getAddressCountry(), String.class);
+        query.setParameter("addressPostalCode", data.getAddressPostalCode(), String.class);
+        query.setParameter("createdAt", data.getCreatedAt(), LocalDateTime.class);
+        query.setParameter("createdBy", data.getCreatedBy() == null ? null : data.getCreatedBy().getBytes(), byte[].class);
+        query.setParameter("updatedAt", data.getUpdatedAt(), LocalDateTime.class);
+        query.setParameter("updatedBy", data.getUpdatedBy() == null ? null : data.getUpdatedBy().getBytes(), byte[].class);
+        List<AppDbAddress> rows = query.getResultList();
+        if (rows.isEmpty()) {
+            return appDbAddressRepository.findById(data.getPid()).orElse(null);
+        }
+        return rows.get(0);
+    }
+
     @Transactional(propagation = Propagation.REQUIRED, rollbackFor = NoResultException.class, transactionManager = "appTransactionManager")
     public AppDbAddress update(AppDbAddress data) {
         if (data == null) {
@@ -189,8 +326,7 @@ public class AppDbAddressService {
         if (data.getRefUID() == null || data.getRefUID().isNull()) {
             throw new CFLibNullArgumentException(AppDbAddressService.class, "update", 1, "data.refUID");
         }
-        SecDbUser user = secDbUserService.find(data.getRefUID());
-        if (user == null) {
+        if (!appDbKnownUserCache.isKnownUser(data.getRefUID())) {
             throw new CFLibUnresolvedRelationException(AppDbAddressService.class, "update", Inz.s("cflib.RelationType.Parent"), Inz.x("cflib.RelationType.Parent"), "refUID", "refUID", "SecDbUser", "SecDbUser", new Object() {
                 public CFLibDbKeyHash256 uid = data.getRefUID();
             });
@@ -44,8 +44,11 @@ package server.markhome.mcf.v3_1.cflib.dbtest.appdb;
 
 import javax.sql.DataSource;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.persistence.EntityManagerFactory;
 
+import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -55,12 +58,26 @@ import com.zaxxer.hikari.HikariDataSource;
 import server.markhome.mcf.v3_1.cflib.CFLibDbException;
 import server.markhome.mcf.v3_1.cflib.CFLibNullArgumentException;
 import server.markhome.mcf.v3_1.cflib.dbtest.DbTest;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestMetrics;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestPidGenerator;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestPoolConfig;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestSchemaFingerprint;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestTimedTransactionManager;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestUnitExecutor;
 import server.markhome.mcf.v3_1.cflib.inz.Inz;
 
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.type.AnnotatedTypeMetadata;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.data.repository.config.BootstrapMode;
 import org.springframework.orm.jpa.JpaTransactionManager;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
 import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
@@ -70,15 +87,73 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
 @Configuration
 //@EntityScan(basePackages = "server.markhome.mcf.v3_1.cflib.dbtest.appdb")
 @EnableTransactionManagement
-@EnableJpaRepositories(
-    basePackages = "server.markhome.mcf.v3_1.cflib.dbtest.appdb",
-    entityManagerFactoryRef = "appEntityManagerFactory",
-    transactionManagerRef = "appTransactionManager"
-)public class AppDbConfig {
+public class AppDbConfig {
 
     public final static String persistenceUnitName = "AppDbPU";
 
+    /**
+     * The appdb repositories bootstrap DEFERRED when appdb.bootstrap.parallel (or bootstrap.parallel) is set, so the
+     * services are wired with lazy repository proxies instead of waiting for the background factory build, and in the
+     * default mode otherwise.  Spring AOT evaluates these conditions when the application is processed, so each
+     * configuration checks at startup that the setting still matches the one it was built for and fails fast if not.
+     */
+    @Configuration
+    @Conditional(ParallelBootstrap.class)
+    @EnableJpaRepositories(
+        basePackages = "server.markhome.mcf.v3_1.cflib.dbtest.appdb",
+        entityManagerFactoryRef = "appEntityManagerFactory",
+        transactionManagerRef = "appTransactionManager",
+        bootstrapMode = BootstrapMode.DEFERRED
+    )
+    static class DeferredRepositories {
+        @PostConstruct
+        public void checkBootstrapMode() {
+            checkParallelBootstrap(true);
+        }
+    }
+
+    @Configuration
+    @Conditional(SerialBootstrap.class)
+    @EnableJpaRepositories(
+        basePackages = "server.markhome.mcf.v3_1.cflib.dbtest.appdb",
+        entityManagerFactoryRef = "appEntityManagerFactory",
+        transactionManagerRef = "appTransactionManager"
+    )
+    static class DefaultRepositories {
+        @PostConstruct
+        public void checkBootstrapMode() {
+            checkParallelBootstrap(false);
+        }
+    }
+
+    /**
+     * Throws when the repositories were configured for a different bootstrap.parallel than the one now in effect,
+     * which only happens when the conditions were frozen by Spring AOT on a machine with other properties.
+     */
+    static void checkParallelBootstrap(boolean configured) {
+        boolean parallel = isParallelBootstrap();
+        if (parallel != configured) {
+            throw new RuntimeException(String.format(Inz.x("cflib.dbtest.AppDbConfig.BootstrapModeFrozen"), "appdb", configured, parallel));
+        }
+    }
+
+    static class ParallelBootstrap implements Condition {
+        @Override
+        public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+            return isParallelBootstrap();
+        }
+    }
+
+    static class SerialBootstrap implements Condition {
+        @Override
+        public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+            return !isParallelBootstrap();
+        }
+    }
+
     private static final AtomicReference<DataSource> refAppDataSource = new AtomicReference<>(null);
+    private static final AtomicReference<DbTestPoolConfig> refAppPoolConfig = new AtomicReference<>(null);
+    private static final AtomicReference<DbTestPidGenerator> refAppPidGenerator = new AtomicReference<>(null);
     private static final AtomicReference<Properties> appJpaProperties = new AtomicReference<>(null);
 
     @Bean(name = "appDataSource")
@@ -93,10 +168,14 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
             config.setUsername(props.getProperty("appdb.jakarta.persistence.jdbc.user", props.getProperty("jakarta.persistence.jdbc.user", "postgres")));
             config.setPassword(props.getProperty("appdb.jakarta.persistence.jdbc.password", props.getProperty("jakarta.persistence.jdbc.password", "pgpassword")));
 
-            config.setMaximumPoolSize(Integer.parseInt(props.getProperty("appdb.hikari.maximumPoolSize", props.getProperty("hikari.maximumPoolSize", "10"))));
-            config.setMinimumIdle(Integer.parseInt(props.getProperty("appdb.hikari.minimumIdle", props.getProperty("hikari.minimumIdle", "5"))));
-            config.setPoolName(props.getProperty("appdb.hikari.poolName", props.getProperty("hikari.poolName", "AppDbHikariCP")));
-            config.setAutoCommit(Boolean.getBoolean(props.getProperty("appdb.hikari.auto-commit", props.getProperty("hikari.auto-commit", "false"))));
+            DbTestPoolConfig poolConfig = getPoolConfig();
+            poolConfig.applyTo(config);
+            config.setMetricRegistry(DbTestMetrics.getRegistry());
+            // The PostgreSQL driver only collapses a JDBC batch into multi-row INSERTs when asked to
+            if (config.getJdbcUrl() != null && config.getJdbcUrl().startsWith("jdbc:postgresql:")
+                && !poolConfig.getDataSourceProperties().containsKey("reWriteBatchedInserts")) {
+                config.addDataSourceProperty("reWriteBatchedInserts", "true");
+            }
 
             DataSource ds = new HikariDataSource(config);
             refAppDataSource.compareAndSet(null, ds);
@@ -104,6 +183,86 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
         return refAppDataSource.get();
     }
 
+    /**
+     * The validated HikariCP settings of the appdb unit, layering appdb.hikari.* over hikari.*.
+     */
+    public static DbTestPoolConfig getPoolConfig() {
+        if (refAppPoolConfig.get() == null) {
+            refAppPoolConfig.compareAndSet(null, DbTestPoolConfig.load(DbTest.getMergedProperties(), "appdb", "AppDbHikariCP"));
+        }
+        return refAppPoolConfig.get();
+    }
+
+    /**
+     * The executor which runs appdb service calls with no more in flight than the appdb pool has connections.
+     */
+    @Bean(name = "appExecutor", destroyMethod = "close")
+    public DbTestUnitExecutor appExecutor() {
+        return DbTestUnitExecutor.forUnit("appdb", getPoolConfig());
+    }
+
+    /**
+     * The generator of the pids create() assigns to new appdb rows, chosen by appdb.pid.mode and appdb.pid.pool-size.
+     */
+    public static DbTestPidGenerator getPidGenerator() {
+        if (refAppPidGenerator.get() == null) {
+            DbTestPidGenerator generator = DbTestPidGenerator.forUnit("appdb");
+            if (!refAppPidGenerator.compareAndSet(null, generator)) {
+                generator.close();
+            }
+        }
+        return refAppPidGenerator.get();
+    }
+
+    /**
+     * Closes the pid generator when the context shuts down, stopping the refill thread of a pooled one, and clears it
+     * so a later context builds its own from its own properties.
+     */
+    @PreDestroy
+    public void closePidGenerator() {
+        DbTestPidGenerator generator = refAppPidGenerator.getAndSet(null);
+        if (generator != null) {
+            generator.close();
+        }
+    }
+
+    /**
+     * The JDBC batch size used by Hibernate for the appdb unit, and the flush/clear interval of the createAll() bulk paths.
+     */
+    public static int getJdbcBatchSize() {
+        Properties merged = DbTest.getMergedProperties();
+        return Integer.parseInt(merged.getProperty("appdb.hibernate.jdbc.batch_size", merged.getProperty("hibernate.jdbc.batch_size", "50")));
+    }
+
+    /**
+     * Whether the appdb EntityManagerFactory is built on a background thread, concurrently with the other units.
+     * Set by bootstrap.parallel, which appdb.bootstrap.parallel overrides; the repositories then bootstrap deferred
+     * (DeferredRepositories), so only beans which actually use the factory wait for it.
+     */
+    public static boolean isParallelBootstrap() {
+        Properties merged = DbTest.getMergedProperties();
+        return Boolean.parseBoolean(merged.getProperty("appdb.bootstrap.parallel", merged.getProperty("bootstrap.parallel", "false")));
+    }
+
+    /**
+     * Whether create() uses the single-statement INSERT ... ON CONFLICT (pid) DO NOTHING path for the appdb unit.
+     * The create.mode property selects "upsert" or "classic"; upsert needs PostgreSQL and is opt-in, so when the
+     * property is unset the classic exists-then-save path is used.
+     */
+    public static boolean isUpsertCreate() {
+        Properties merged = DbTest.getMergedProperties();
+        return "upsert".equalsIgnoreCase(merged.getProperty("appdb.create.mode", merged.getProperty("create.mode", "classic")));
+    }
+
+    /**
+     * Whether the appdb unit is connected to PostgreSQL, which the native SQL and COPY paths require.
+     */
+    public static boolean isPostgreSQL() {
+        Properties merged = DbTest.getMergedProperties();
+        String url = merged.getProperty("appdb.jakarta.persistence.jdbc.url", merged.getProperty("jakarta.persistence.jdbc.url", "jdbc:postgresql://localhost:5432/yourdb"));
+        return url.startsWith("jdbc:postgresql:");
+    }
+
     @Bean(name = "appJpaProperties")
     // @PersistenceContext(unitName = "AppDbPU")
     public Properties appJpaProperties() {
@@ -124,12 +283,16 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
             // String jakartaJtaDataSource = merged.getProperty("appdb.jakarta.persistence.jtaDataSource", merged.getProperty("jakarta.persistence.jtaDataSource", null));
             String hibernateDialect = merged.getProperty("appdb.hibernate.dialect", merged.getProperty("hibernate.dialect", "org.hibernate.dialect.PostgreSQLDialect"));
             String hibernateHbm2ddlAuto = merged.getProperty("appdb.hibernate.hbm2ddl.auto", merged.getProperty("hibernate.hbm2ddl.auto", "update"));
+            String schemaUpdateMode = merged.getProperty("appdb.schema.update-mode", merged.getProperty("schema.update-mode", "always"));
             String hibernateShowSql = merged.getProperty("appdb.hibernate.show_sql", merged.getProperty("hibernate.show_sql", "false"));
             String hibernateFormatSql = merged.getProperty("appdb.hibernate.format_sql", merged.getProperty("hibernate.format_sql", "false"));
             String hibernateConnectionPoolSize = merged.getProperty("appdb.hibernate.connection_pool_size", merged.getProperty("hibernate.connection_pool_size", "10"));
             String hibernateConnectionDatasource = merged.getProperty("appdb.hibernate.connection_datasource", merged.getProperty("hibernate.connection_datasource", null));
             String hibernateCacheRegionFactoryClass = merged.getProperty("appdb.hibernate.cache.region.factory_class", merged.getProperty("hibernate.cache.region.factory_class", null));
             String hibernateDefaultSchema = merged.getProperty("appdb.hibernate.default_schema", "appdb");
+            String hibernateJdbcBatchSize = Integer.toString(getJdbcBatchSize());
+            String hibernateOrderInserts = merged.getProperty("appdb.hibernate.order_inserts", merged.getProperty("hibernate.order_inserts", "true"));
+            String hibernateOrderUpdates = merged.getProperty("appdb.hibernate.order_updates", merged.getProperty("hibernate.order_updates", "true"));
             // String hibernateTransactionJTAPlatform = merged.getProperty("appdb.hibernate.transaction.jta.platform", merged.getProperty("hibernate.transaction.jta.platform", "org.hibernate.engine.transaction.jta.platform.internal.SpringJtaPlatform"));
 
             Properties applicable = new Properties();
@@ -167,7 +330,15 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
                 applicable.setProperty("hibernate.dialect", hibernateDialect);
             }
             if (hibernateHbm2ddlAuto != null && !hibernateHbm2ddlAuto.isEmpty()) {
-                applicable.setProperty("hibernate.hbm2ddl.auto", hibernateHbm2ddlAuto);
+                if (hibernateHbm2ddlAuto.equals("update") && schemaUpdateMode.equalsIgnoreCase("fingerprint")) {
+                    // DbTestSchemaFingerprint runs the update itself, and only when the mapped metadata has changed
+                    DbTestSchemaFingerprint fingerprint = new DbTestSchemaFingerprint("appdb", hibernateDefaultSchema, appDataSource());
+                    applicable.setProperty("hibernate.hbm2ddl.auto", "none");
+                    applicable.put("hibernate.integrator_provider", (IntegratorProvider) () -> List.of(fingerprint));
+                }
+                else {
+                    applicable.setProperty("hibernate.hbm2ddl.auto", hibernateHbm2ddlAuto);
+                }
             }
             if (hibernateShowSql != null && !hibernateShowSql.isEmpty()) {
                 applicable.setProperty("hibernate.show_sql", hibernateShowSql);
@@ -187,6 +358,19 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
             if (hibernateDefaultSchema != null && !hibernateDefaultSchema.isEmpty()) {
                 applicable.setProperty("hibernate.default_schema", hibernateDefaultSchema);
             }
+            if (hibernateJdbcBatchSize != null && !hibernateJdbcBatchSize.isEmpty()) {
+                applicable.setProperty("hibernate.jdbc.batch_size", hibernateJdbcBatchSize);
+            }
+            if (hibernateOrderInserts != null && !hibernateOrderInserts.isEmpty()) {
+                applicable.setProperty("hibernate.order_inserts", hibernateOrderInserts);
+            }
+            if (hibernateOrderUpdates != null && !hibernateOrderUpdates.isEmpty()) {
+                applicable.setProperty("hibernate.order_updates", hibernateOrderUpdates);
+            }
+            // Pooled connections already have auto-commit off, so Hibernate need not check it at the start of every transaction
+            if (!getPoolConfig().isAutoCommit()) {
+                applicable.setProperty("hibernate.connection.provider_disables_autocommit", "true");
+            }
             // // If you want to use a JTA DataSource, you can set it here
             // if (jakartaJtaDataSource != null && !jakartaJtaDataSource.isEmpty()) {
             //     applicable.setProperty("jakarta.persistence.jtaDataSource", jakartaJtaDataSource);
@@ -231,6 +415,10 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
                 emfBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
                 emfBean.setJpaProperties(appJpaProperties);
                 emfBean.setPersistenceUnitName("AppDbPU");
+                if (isParallelBootstrap()) {
+                    // Hibernate boots on its own thread; getObject() hands out a proxy which blocks until the factory is ready
+                    emfBean.setBootstrapExecutor(new SimpleAsyncTaskExecutor("AppDbBootstrap-"));
+                }
                 return emfBean;
             } catch (Exception e) {
                 System.err.println(String.format(Inz.x("cflib.dbtest.AppDbConfig.appEntityManagerFactoryRethrow"), persistenceUnitName, e.getClass().getName(), e.getLocalizedMessage()));
@@ -245,7 +433,7 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
         @Qualifier("appEntityManagerFactory") LocalContainerEntityManagerFactoryBean appEntityManagerFactory) {
             EntityManagerFactory f = appEntityManagerFactory.getObject();
             if (f != null) {
-                return new JpaTransactionManager(f);
+                return new DbTestTimedTransactionManager(f, "appTransactionManager", DbTestMetrics.getRegistry());
             }
             else {
                 System.err.println("ERROR: AppDbConfig.appTransactionManager() appEntityManagerFactoryBean.getObject() returned null");
@@ -0,0 +1,134 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest.appdb;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import server.markhome.mcf.v3_1.cflib.CFLibDbException;
+import server.markhome.mcf.v3_1.cflib.CFLibNullArgumentException;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestExportWriter;
+import server.markhome.mcf.v3_1.cflib.inz.Inz;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.NoResultException;
+import jakarta.persistence.PersistenceContext;
+
+/**
+ * Exports app_addr as CSV or NDJSON in constant memory, streaming AppDbAddressRepository.streamAll() and detaching
+ * each address once it has been written.  Returns the number of rows written.
+ */
+@Service("AppDbExportService")
+public class AppDbExportService {
+
+    public final static String[] ADDRESS_COLUMNS = { "pid", "refuid", "addrname", "addrcontact", "addrapt", "addrstreet", "addrstreet2",
+        "addrcity", "addrprovince", "addrcountry", "addrpostalcode", "created_at", "created_by", "updated_at", "updated_by" };
+
+    @PersistenceContext(unitName = AppDbConfig.persistenceUnitName)
+    private EntityManager appEntityManager;
+
+    @Autowired
+    private AppDbAddressRepository appDbAddressRepository;
+
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "appTransactionManager")
+    public long exportAddresses(OutputStream out, DbTestExportWriter.Format format) {
+        if (out == null) {
+            throw new CFLibNullArgumentException(AppDbExportService.class, "exportAddresses", 1, "out");
+        }
+        if (format == null) {
+            throw new CFLibNullArgumentException(AppDbExportService.class, "exportAddresses", 2, "format");
+        }
+        try {
+            return writeAddresses(out, format);
+        }
+        catch (IOException e) {
+            throw rethrow("exportAddresses", e);
+        }
+    }
+
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "appTransactionManager")
+    public long exportAddresses(Path file, DbTestExportWriter.Format format) {
+        if (file == null) {
+            throw new CFLibNullArgumentException(AppDbExportService.class, "exportAddresses", 1, "file");
+        }
+        if (format == null) {
+            throw new CFLibNullArgumentException(AppDbExportService.class, "exportAddresses", 2, "format");
+        }
+        try (OutputStream out = Files.newOutputStream(file)) {
+            return writeAddresses(out, format);
+        }
+        catch (IOException e) {
+            throw rethrow("exportAddresses", e);
+        }
+    }
+
+    private long writeAddresses(OutputStream out, DbTestExportWriter.Format format) throws IOException {
+        try (DbTestExportWriter writer = new DbTestExportWriter(out, format, ADDRESS_COLUMNS);
+            Stream<AppDbAddress> addresses = appDbAddressRepository.streamAll()) {
+            Iterator<AppDbAddress> iter = addresses.iterator();
+            while (iter.hasNext()) {
+                AppDbAddress addr = iter.next();
+                writer.writeRow(addr.getPid(), addr.getRefUID(), addr.getAddressName(), addr.getAddressContact(), addr.getAddressApartment(),
+                    addr.getAddressStreet(), addr.getAddressStreet2(), addr.getAddressCity(), addr.getAddressProvince(), addr.getAddressCountry(),
+                    addr.getAddressPostalCode(), addr.getCreatedAt(), addr.getCreatedBy(), addr.getUpdatedAt(), addr.getUpdatedBy());
+                appEntityManager.detach(addr);
+            }
+            return writer.getRowCount();
+        }
+    }
+
+    private static CFLibDbException rethrow(String methName, Exception e) {
+        System.err.println(String.format(Inz.x("cflib.dbtest.AppDbExportService.rethrow"), e.getClass().getName(), methName, e.getLocalizedMessage()));
+        e.printStackTrace(System.err);
+        return new CFLibDbException(AppDbExportService.class, methName, String.format(Inz.s("cflib.dbtest.AppDbExportService.rethrow"), e.getClass().getName(), methName, e.getMessage()), methName, String.format(Inz.x("cflib.dbtest.AppDbExportService.rethrow"), e.getClass().getName(), methName, e.getLocalizedMessage()), e);
+    }
+}
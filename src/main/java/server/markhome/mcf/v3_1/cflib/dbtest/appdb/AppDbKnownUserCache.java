@@ -0,0 +1,147 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest.appdb;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTest;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbUserRemovedEvent;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbUserService;
+import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * A bounded, concurrent set of SecDbUser pids known to exist, used by AppDbAddressService to validate refUIDs without
+ * a secdb round trip per write.
+ * <p>
+ * Only positive answers are cached; a miss costs one sec_user existence probe.  Entries are dropped when a
+ * SecDbUserRemovedEvent commits, and expire after appdb.known-user-cache.expire-after-write seconds as a backstop for
+ * users removed outside the services.  appdb.known-user-cache.maximum-size bounds the entry count.
+ */
+@Component
+public class AppDbKnownUserCache {
+
+    @Autowired
+    private SecDbUserService secDbUserService;
+
+    private final Cache<CFLibDbKeyHash256, Boolean> knownUsers;
+
+    public AppDbKnownUserCache() {
+        Properties merged = DbTest.getMergedProperties();
+        long maximumSize = Long.parseLong(merged.getProperty("appdb.known-user-cache.maximum-size", "100000"));
+        long expireAfterWrite = Long.parseLong(merged.getProperty("appdb.known-user-cache.expire-after-write", "600"));
+        Caffeine<Object, Object> builder = Caffeine.newBuilder().maximumSize(maximumSize);
+        if (expireAfterWrite > 0) {
+            builder.expireAfterWrite(Duration.ofSeconds(expireAfterWrite));
+        }
+        knownUsers = builder.build();
+    }
+
+    public boolean isKnownUser(CFLibDbKeyHash256 pid) {
+        if (pid == null || pid.isNull()) {
+            return false;
+        }
+        if (knownUsers.getIfPresent(pid) != null) {
+            return true;
+        }
+        boolean exists = secDbUserService.exists(pid);
+        if (exists) {
+            knownUsers.put(pid, Boolean.TRUE);
+        }
+        return exists;
+    }
+
+    /**
+     * Returns the subset of the given pids that identify existing users, probing secdb only for the ones not cached.
+     */
+    public Set<CFLibDbKeyHash256> findKnownUsers(Collection<CFLibDbKeyHash256> pids) {
+        Set<CFLibDbKeyHash256> known = new HashSet<>();
+        List<CFLibDbKeyHash256> unresolved = new ArrayList<>();
+        for (CFLibDbKeyHash256 pid : pids) {
+            if (pid == null || pid.isNull()) {
+                continue;
+            }
+            if (knownUsers.getIfPresent(pid) != null) {
+                known.add(pid);
+            }
+            else {
+                unresolved.add(pid);
+            }
+        }
+        if (!unresolved.isEmpty()) {
+            for (CFLibDbKeyHash256 pid : secDbUserService.findExistingPids(unresolved)) {
+                knownUsers.put(pid, Boolean.TRUE);
+                known.add(pid);
+            }
+        }
+        return known;
+    }
+
+    public void invalidate(CFLibDbKeyHash256 pid) {
+        if (pid != null) {
+            knownUsers.invalidate(pid);
+        }
+    }
+
+    public void invalidateAll() {
+        knownUsers.invalidateAll();
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onUserRemoved(SecDbUserRemovedEvent event) {
+        invalidate(event.getPid());
+    }
+}
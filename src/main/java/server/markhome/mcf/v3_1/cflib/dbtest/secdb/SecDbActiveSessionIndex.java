@@ -0,0 +1,377 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest.secdb;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTest;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestKeyHash256Map;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestMetrics;
+import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.Gauge;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * An in-process index of the live (terminated_at IS NULL) sessions, keyed by session pid and by user pid, so
+ * SecDbSessionService.isActive() can answer without a secdb round trip.  The session pid lookup is a
+ * DbTestKeyHash256Map, so an isActive() probe allocates nothing.
+ * <p>
+ * The index is loaded from secdb.sec_sess once the application is ready and is then written through by the
+ * SecDbSessionWrittenEvent, SecDbSessionsTerminatedEvent and SecDbUserRemovedEvent the session and user services
+ * publish, applied after their transactions commit.  Until the first load finishes isActive() returns null and callers
+ * fall back to the database.  Sessions written outside the services (other nodes, other processes, direct SQL) are
+ * only picked up by a reload, which runs every secdb.sessions.index.reload-seconds (default 30).  Writes which commit
+ * while a reload is reading are journalled and replayed onto the fresh snapshot before it replaces the current one, so
+ * a reload never loses them.
+ * <p>
+ * A snapshot older than secdb.sessions.index.max-staleness-seconds (default three reload intervals) is not trusted:
+ * isActive() returns null again until a reload succeeds, so failing reloads send callers back to the database rather
+ * than serving a stale answer indefinitely.  reload-seconds=0 loads once and never resyncs, which is only safe when
+ * this JVM is the sole writer of secdb.sec_sess; max-staleness-seconds=0 disables the staleness bound.
+ * <p>
+ * secdb.sessions.index.enabled=false turns the index off entirely.
+ */
+@Component
+public class SecDbActiveSessionIndex {
+
+    public record ActiveSession(CFLibDbKeyHash256 pid, CFLibDbKeyHash256 secUserPid, LocalDateTime createdAt) {
+    }
+
+    private static final class State {
+        final DbTestKeyHash256Map<ActiveSession> bySession = new DbTestKeyHash256Map<>();
+        final ConcurrentHashMap<CFLibDbKeyHash256, Set<CFLibDbKeyHash256>> byUser = new ConcurrentHashMap<>();
+
+        void add(ActiveSession session) {
+            ActiveSession prior = bySession.put(session.pid(), session);
+            if (prior != null && prior.secUserPid() != null && !prior.secUserPid().equals(session.secUserPid())) {
+                unlink(prior);
+            }
+            if (session.secUserPid() != null) {
+                byUser.compute(session.secUserPid(), (userPid, pids) -> {
+                    Set<CFLibDbKeyHash256> linked = pids != null ? pids : ConcurrentHashMap.newKeySet();
+                    linked.add(session.pid());
+                    return linked;
+                });
+            }
+        }
+
+        void remove(CFLibDbKeyHash256 pid) {
+            ActiveSession prior = bySession.remove(pid);
+            if (prior != null) {
+                unlink(prior);
+            }
+        }
+
+        void removeUser(CFLibDbKeyHash256 secUserPid) {
+            Set<CFLibDbKeyHash256> pids = byUser.remove(secUserPid);
+            if (pids != null) {
+                for (CFLibDbKeyHash256 pid : pids) {
+                    bySession.remove(pid);
+                }
+            }
+        }
+
+        void removeCreatedBefore(LocalDateTime createdBefore) {
+            bySession.forEachValue(session -> {
+                if (session.createdAt() != null && session.createdAt().isBefore(createdBefore)) {
+                    remove(session.pid());
+                }
+            });
+        }
+
+        private void unlink(ActiveSession session) {
+            if (session.secUserPid() == null) {
+                return;
+            }
+            byUser.computeIfPresent(session.secUserPid(), (userPid, pids) -> {
+                pids.remove(session.pid());
+                return pids.isEmpty() ? null : pids;
+            });
+        }
+    }
+
+    @Autowired
+    private SecDbSessionRepository secDbSessionRepository;
+
+    @Autowired
+    @Qualifier("secTransactionManager")
+    private PlatformTransactionManager secTransactionManager;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile State state = null;
+    private volatile long snapshotNanos = 0L;
+    private volatile long maxStalenessNanos = 0L;
+    private volatile ConcurrentLinkedQueue<Consumer<State>> journal = null;
+    private ScheduledExecutorService scheduler;
+
+    public SecDbActiveSessionIndex() {
+        Gauge.builder("dbtest.sessions.active.indexed", this, SecDbActiveSessionIndex::size)
+            .description("Live sessions held by the in-process active session index")
+            .register(DbTestMetrics.getRegistry());
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(DbTest.getMergedProperties().getProperty("secdb.sessions.index.enabled", "true"));
+    }
+
+    public static long getReloadSeconds() {
+        return Long.parseLong(DbTest.getMergedProperties().getProperty("secdb.sessions.index.reload-seconds", "30"));
+    }
+
+    /**
+     * The age beyond which a snapshot is no longer trusted, or 0 for no bound.  Defaults to three reload intervals,
+     * and to no bound when periodic reloads are off.
+     */
+    public static long getMaxStalenessSeconds() {
+        String value = DbTest.getMergedProperties().getProperty("secdb.sessions.index.max-staleness-seconds");
+        if (value == null || value.isBlank()) {
+            return Math.max(0L, 3L * getReloadSeconds());
+        }
+        return Long.parseLong(value.trim());
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void start() {
+        if (!isEnabled() || scheduler != null) {
+            return;
+        }
+        maxStalenessNanos = TimeUnit.SECONDS.toNanos(getMaxStalenessSeconds());
+        scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("SecDbActiveSessionIndex").daemon(true).factory());
+        long reloadSeconds = getReloadSeconds();
+        if (reloadSeconds > 0) {
+            scheduler.scheduleWithFixedDelay(this::reloadQuietly, 0L, reloadSeconds, TimeUnit.SECONDS);
+        }
+        else {
+            scheduler.execute(this::reloadQuietly);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    public boolean isLoaded() {
+        return state != null;
+    }
+
+    /**
+     * Whether the current snapshot was read within the max-staleness bound.
+     */
+    public boolean isFresh() {
+        if (state == null) {
+            return false;
+        }
+        long maxStaleness = maxStalenessNanos;
+        return maxStaleness <= 0L || System.nanoTime() - snapshotNanos <= maxStaleness;
+    }
+
+    /**
+     * Whether the session is live, or null when the index has not been loaded, or its snapshot is older than
+     * max-staleness-seconds, and the answer must come from secdb.
+     */
+    public Boolean isActive(CFLibDbKeyHash256 pid) {
+        State current = state;
+        if (current == null || !isFresh()) {
+            return null;
+        }
+        return pid != null && current.bySession.containsKey(pid);
+    }
+
+    public ActiveSession find(CFLibDbKeyHash256 pid) {
+        State current = state;
+        if (current == null || pid == null) {
+            return null;
+        }
+        return current.bySession.get(pid);
+    }
+
+    /**
+     * The pids of the user's live sessions, or null when the index has not been loaded.
+     */
+    public Set<CFLibDbKeyHash256> findActiveByUser(CFLibDbKeyHash256 secUserPid) {
+        State current = state;
+        if (current == null) {
+            return null;
+        }
+        Set<CFLibDbKeyHash256> pids = secUserPid != null ? current.byUser.get(secUserPid) : null;
+        return pids != null ? Collections.unmodifiableSet(pids) : Collections.emptySet();
+    }
+
+    public int size() {
+        State current = state;
+        return current != null ? current.bySession.size() : 0;
+    }
+
+    /**
+     * Rebuild the index from secdb.sec_sess, replaying any writes which commit while the snapshot is read.
+     */
+    public synchronized void reload() {
+        ConcurrentLinkedQueue<Consumer<State>> pending = new ConcurrentLinkedQueue<>();
+        lock.writeLock().lock();
+        try {
+            journal = pending;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+        State fresh = null;
+        long startedNanos = System.nanoTime();
+        try {
+            fresh = load();
+        }
+        finally {
+            lock.writeLock().lock();
+            try {
+                journal = null;
+                if (fresh != null) {
+                    for (Consumer<State> op : pending) {
+                        op.accept(fresh);
+                    }
+                    state = fresh;
+                    snapshotNanos = startedNanos;
+                }
+            }
+            finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    private void reloadQuietly() {
+        try {
+            reload();
+        }
+        catch (Throwable th) {
+            System.err.println("SecDbActiveSessionIndex.reload() threw " + th.getClass().getName() + " - " + th.getMessage());
+            th.printStackTrace(System.err);
+        }
+    }
+
+    private State load() {
+        TransactionTemplate tx = new TransactionTemplate(secTransactionManager);
+        tx.setReadOnly(true);
+        return tx.execute(status -> {
+            State fresh = new State();
+            try (Stream<Object[]> rows = secDbSessionRepository.streamActive()) {
+                rows.forEach(row -> fresh.add(new ActiveSession((CFLibDbKeyHash256)row[0], (CFLibDbKeyHash256)row[1], (LocalDateTime)row[2])));
+            }
+            return fresh;
+        });
+    }
+
+    private void mutate(Consumer<State> op) {
+        lock.readLock().lock();
+        try {
+            State current = state;
+            if (current != null) {
+                op.accept(current);
+            }
+            ConcurrentLinkedQueue<Consumer<State>> pending = journal;
+            if (pending != null) {
+                pending.add(op);
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onSessionWritten(SecDbSessionWrittenEvent event) {
+        if (event.getPid() == null) {
+            return;
+        }
+        if (event.getTerminatedAt() == null) {
+            ActiveSession session = new ActiveSession(event.getPid(), event.getSecUserPid(), event.getCreatedAt());
+            mutate(s -> s.add(session));
+        }
+        else {
+            mutate(s -> s.remove(event.getPid()));
+        }
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onSessionsTerminated(SecDbSessionsTerminatedEvent event) {
+        if (event.getSecUserPid() != null) {
+            mutate(s -> s.removeUser(event.getSecUserPid()));
+        }
+        else if (event.getCreatedBefore() != null) {
+            mutate(s -> s.removeCreatedBefore(event.getCreatedBefore()));
+        }
+        else if (event.getPids() != null) {
+            mutate(s -> event.getPids().forEach(s::remove));
+        }
+    }
+
+    @TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+    public void onUserRemoved(SecDbUserRemovedEvent event) {
+        if (event.getPid() != null) {
+            mutate(s -> s.removeUser(event.getPid()));
+        }
+    }
+}
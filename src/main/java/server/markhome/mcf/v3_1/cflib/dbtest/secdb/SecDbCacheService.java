@@ -0,0 +1,117 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest.secdb;
+
+import java.util.Arrays;
+
+import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.stereotype.Service;
+
+import jakarta.persistence.EntityManagerFactory;
+
+/**
+ * Hit/miss statistics and eviction for the secdb second-level cache region of the SecDbUser hierarchy.
+ */
+@Service("SecDbCacheService")
+public class SecDbCacheService {
+
+    @Autowired
+    @Qualifier("secEntityManagerFactory")
+    private LocalContainerEntityManagerFactoryBean secEntityManagerFactory;
+
+    public Statistics getStatistics() {
+        EntityManagerFactory emf = secEntityManagerFactory.getObject();
+        if (emf == null) {
+            return null;
+        }
+        return emf.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    /**
+     * The region statistics of the SecDbUser cache, or null when the second-level cache or statistics are disabled.
+     * Hibernate throws for a region it does not know, as is the case with the second-level cache off, so the region
+     * names are checked first.
+     */
+    public CacheRegionStatistics getUserRegionStatistics() {
+        Statistics statistics = getStatistics();
+        if (statistics == null || !statistics.isStatisticsEnabled()) {
+            return null;
+        }
+        if (!Arrays.asList(statistics.getSecondLevelCacheRegionNames()).contains(SecDbUser.CACHE_REGION)) {
+            return null;
+        }
+        return statistics.getDomainDataRegionStatistics(SecDbUser.CACHE_REGION);
+    }
+
+    public String getUserRegionSummary() {
+        CacheRegionStatistics region = getUserRegionStatistics();
+        if (region == null) {
+            return "SecDbUser second-level cache statistics are not available";
+        }
+        long lookups = region.getHitCount() + region.getMissCount();
+        double hitRatio = (lookups == 0L) ? 0.0 : ((double)region.getHitCount()) / lookups;
+        return String.format("SecDbUser second-level cache region %1$s: hits=%2$d misses=%3$d puts=%4$d hit-ratio=%5$.3f in-memory=%6$d",
+            region.getRegionName(), region.getHitCount(), region.getMissCount(), region.getPutCount(), hitRatio, region.getElementCountInMemory());
+    }
+
+    public void evictUser(CFLibDbKeyHash256 pid) {
+        EntityManagerFactory emf = secEntityManagerFactory.getObject();
+        if (emf != null && pid != null) {
+            emf.getCache().evict(SecDbUser.class, pid);
+        }
+    }
+
+    public void evictAllUsers() {
+        EntityManagerFactory emf = secEntityManagerFactory.getObject();
+        if (emf != null) {
+            emf.getCache().evict(SecDbUser.class);
+        }
+    }
+}
@@ -43,24 +43,49 @@
 package server.markhome.mcf.v3_1.cflib.dbtest.secdb;
 
 import javax.sql.DataSource;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import jakarta.persistence.EntityManagerFactory;
 
+import java.util.OptionalLong;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.spi.CachingProvider;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 
 import server.markhome.mcf.v3_1.cflib.CFLibDbException;
 import server.markhome.mcf.v3_1.cflib.CFLibNullArgumentException;
 import server.markhome.mcf.v3_1.cflib.dbtest.DbTest;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestMetrics;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestPidGenerator;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestPoolConfig;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestSchemaFingerprint;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestTimedTransactionManager;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestUnitExecutor;
 import server.markhome.mcf.v3_1.cflib.inz.Inz;
 
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Condition;
+import org.springframework.context.annotation.ConditionContext;
+import org.springframework.context.annotation.Conditional;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Primary;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.type.AnnotatedTypeMetadata;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.data.repository.config.BootstrapMode;
 //import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
 import org.springframework.orm.jpa.JpaTransactionManager;
@@ -70,17 +95,75 @@ import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
 @Configuration
 //@EntityScan(basePackages = "server.markhome.mcf.v3_1.cflib.dbtest.secdb")
 @EnableTransactionManagement
-@EnableJpaRepositories(
-    basePackages = "server.markhome.mcf.v3_1.cflib.dbtest.secdb",
-    entityManagerFactoryRef = "secEntityManagerFactory",
-    transactionManagerRef = "secTransactionManager"
-)
 public class SecDbConfig {
 
     public final static String persistenceUnitName = "SecDbPU";
 
+    /**
+     * The secdb repositories bootstrap DEFERRED when secdb.bootstrap.parallel (or bootstrap.parallel) is set, so the
+     * services are wired with lazy repository proxies instead of waiting for the background factory build, and in the
+     * default mode otherwise.  Spring AOT evaluates these conditions when the application is processed, so each
+     * configuration checks at startup that the setting still matches the one it was built for and fails fast if not.
+     */
+    @Configuration
+    @Conditional(ParallelBootstrap.class)
+    @EnableJpaRepositories(
+        basePackages = "server.markhome.mcf.v3_1.cflib.dbtest.secdb",
+        entityManagerFactoryRef = "secEntityManagerFactory",
+        transactionManagerRef = "secTransactionManager",
+        bootstrapMode = BootstrapMode.DEFERRED
+    )
+    static class DeferredRepositories {
+        @PostConstruct
+        public void checkBootstrapMode() {
+            checkParallelBootstrap(true);
+        }
+    }
+
+    @Configuration
+    @Conditional(SerialBootstrap.class)
+    @EnableJpaRepositories(
+        basePackages = "server.markhome.mcf.v3_1.cflib.dbtest.secdb",
+        entityManagerFactoryRef = "secEntityManagerFactory",
+        transactionManagerRef = "secTransactionManager"
+    )
+    static class DefaultRepositories {
+        @PostConstruct
+        public void checkBootstrapMode() {
+            checkParallelBootstrap(false);
+        }
+    }
+
+    /**
+     * Throws when the repositories were configured for a different bootstrap.parallel than the one now in effect,
+     * which only happens when the conditions were frozen by Spring AOT on a machine with other properties.
+     */
+    static void checkParallelBootstrap(boolean configured) {
+        boolean parallel = isParallelBootstrap();
+        if (parallel != configured) {
+            throw new RuntimeException(String.format(Inz.x("cflib.dbtest.SecDbConfig.BootstrapModeFrozen"), "secdb", configured, parallel));
+        }
+    }
+
+    static class ParallelBootstrap implements Condition {
+        @Override
+        public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+            return isParallelBootstrap();
+        }
+    }
+
+    static class SerialBootstrap implements Condition {
+        @Override
+        public boolean matches(ConditionContext context, AnnotatedTypeMetadata metadata) {
+            return !isParallelBootstrap();
+        }
+    }
+
     private static final AtomicReference<DataSource> refSecDataSource = new AtomicReference<>(null);
+    private static final AtomicReference<DbTestPoolConfig> refSecPoolConfig = new AtomicReference<>(null);
+    private static final AtomicReference<DbTestPidGenerator> refSecPidGenerator = new AtomicReference<>(null);
     private static final AtomicReference<Properties> secJpaProperties = new AtomicReference<>(null);
+    private static final AtomicReference<CacheManager> refSecCacheManager = new AtomicReference<>(null);
 
     @Bean(name = "secDataSource")
     // @PersistenceContext(unitName = "SecDbPU")
@@ -95,10 +178,14 @@ public class SecDbConfig {
             config.setUsername(props.getProperty("secdb.jakarta.persistence.jdbc.user", props.getProperty("jakarta.persistence.jdbc.user", "postgres")));
             config.setPassword(props.getProperty("secdb.jakarta.persistence.jdbc.password", props.getProperty("jakarta.persistence.jdbc.password", "pgpassword")));
 
-            config.setMaximumPoolSize(Integer.parseInt(props.getProperty("secdb.hikari.maximumPoolSize", props.getProperty("hikari.maximumPoolSize", "10"))));
-            config.setMinimumIdle(Integer.parseInt(props.getProperty("secdb.hikari.minimumIdle", props.getProperty("hikari.minimumIdle", "5"))));
-            config.setPoolName(props.getProperty("secdb.hikari.poolName", props.getProperty("hikari.poolName", "SecDbHikariCP")));
-            config.setAutoCommit(Boolean.getBoolean(props.getProperty("secdb.hikari.auto-commit", props.getProperty("hikari.auto-commit", "true"))));
+            DbTestPoolConfig poolConfig = getPoolConfig();
+            poolConfig.applyTo(config);
+            config.setMetricRegistry(DbTestMetrics.getRegistry());
+            // The PostgreSQL driver only collapses a JDBC batch into multi-row INSERTs when asked to
+            if (config.getJdbcUrl() != null && config.getJdbcUrl().startsWith("jdbc:postgresql:")
+                && !poolConfig.getDataSourceProperties().containsKey("reWriteBatchedInserts")) {
+                config.addDataSourceProperty("reWriteBatchedInserts", "true");
+            }
 
             DataSource ds = new HikariDataSource(config);
 
@@ -107,6 +194,153 @@ public class SecDbConfig {
         return refSecDataSource.get();
     }
 
+    /**
+     * The validated HikariCP settings of the secdb unit, layering secdb.hikari.* over hikari.*.
+     */
+    public static DbTestPoolConfig getPoolConfig() {
+        if (refSecPoolConfig.get() == null) {
+            refSecPoolConfig.compareAndSet(null, DbTestPoolConfig.load(DbTest.getMergedProperties(), "secdb", "SecDbHikariCP"));
+        }
+        return refSecPoolConfig.get();
+    }
+
+    /**
+     * The executor which runs secdb service calls with no more in flight than the secdb pool has connections.
+     */
+    @Bean(name = "secExecutor", destroyMethod = "close")
+    @Primary
+    public DbTestUnitExecutor secExecutor() {
+        return DbTestUnitExecutor.forUnit("secdb", getPoolConfig());
+    }
+
+    /**
+     * The generator of the pids create() assigns to new secdb rows, chosen by secdb.pid.mode and secdb.pid.pool-size.
+     */
+    public static DbTestPidGenerator getPidGenerator() {
+        if (refSecPidGenerator.get() == null) {
+            DbTestPidGenerator generator = DbTestPidGenerator.forUnit("secdb");
+            if (!refSecPidGenerator.compareAndSet(null, generator)) {
+                generator.close();
+            }
+        }
+        return refSecPidGenerator.get();
+    }
+
+    /**
+     * Closes the pid generator when the context shuts down, stopping the refill thread of a pooled one, and clears it
+     * so a later context builds its own from its own properties.
+     */
+    @PreDestroy
+    public void closePidGenerator() {
+        DbTestPidGenerator generator = refSecPidGenerator.getAndSet(null);
+        if (generator != null) {
+            generator.close();
+        }
+    }
+
+    /**
+     * The JDBC batch size used by Hibernate for the secdb unit, and the flush/clear interval of the createAll() bulk paths.
+     */
+    public static int getJdbcBatchSize() {
+        Properties merged = DbTest.getMergedProperties();
+        return Integer.parseInt(merged.getProperty("secdb.hibernate.jdbc.batch_size", merged.getProperty("hibernate.jdbc.batch_size", "50")));
+    }
+
+    /**
+     * Whether the secdb EntityManagerFactory is built on a background thread, concurrently with the other units.
+     * Set by bootstrap.parallel, which secdb.bootstrap.parallel overrides; the repositories then bootstrap deferred
+     * (DeferredRepositories), so only beans which actually use the factory wait for it.
+     */
+    public static boolean isParallelBootstrap() {
+        Properties merged = DbTest.getMergedProperties();
+        return Boolean.parseBoolean(merged.getProperty("secdb.bootstrap.parallel", merged.getProperty("bootstrap.parallel", "false")));
+    }
+
+    public final static String INHERITANCE_JOINED = "joined";
+    public final static String INHERITANCE_SINGLE_TABLE = "single-table";
+
+    /**
+     * The mapping resource which switches the SecDbUser hierarchy to SINGLE_TABLE inheritance.
+     */
+    public final static String SINGLE_TABLE_MAPPING = "META-INF/secdb-single-table-orm.xml";
+
+    /**
+     * The inheritance strategy of the SecDbUser hierarchy, set by secdb.inheritance: "joined" (the default) stores
+     * managers in sec_user plus sec_mgr, "single-table" stores both users and managers in sec_user alone.
+     * The two layouts are not interchangeable over the same schema; pick one per database.
+     */
+    public static String getInheritance() {
+        String inheritance = DbTest.getMergedProperties().getProperty("secdb.inheritance", INHERITANCE_JOINED).trim().toLowerCase();
+        if (!INHERITANCE_JOINED.equals(inheritance) && !INHERITANCE_SINGLE_TABLE.equals(inheritance)) {
+            throw new RuntimeException(String.format(Inz.x("cflib.dbtest.SecDbConfig.UnknownInheritance"), inheritance));
+        }
+        return inheritance;
+    }
+
+    public static boolean isSingleTableInheritance() {
+        return INHERITANCE_SINGLE_TABLE.equals(getInheritance());
+    }
+
+    /**
+     * The table holding the SecDbManager columns (title, deptcode, subdeptof) for the native SQL paths.
+     */
+    public static String getManagerTable() {
+        return isSingleTableInheritance() ? "secdb.sec_user" : "secdb.sec_mgr";
+    }
+
+    /**
+     * A native SQL condition restricting rows of getManagerTable() under the given alias to managers.
+     */
+    public static String getManagerCondition(String alias) {
+        return isSingleTableInheritance() ? alias + ".user_type = 1" : "1 = 1";
+    }
+
+    /**
+     * Whether create() uses the single-statement INSERT ... ON CONFLICT (pid) DO NOTHING path for the secdb unit.
+     * The create.mode property selects "upsert" or "classic"; upsert needs PostgreSQL and is opt-in, so when the
+     * property is unset the classic exists-then-save path is used.  An existing row is returned on either path, but a
+     * manager create on a pid owned by a plain user returns null under upsert and fails under classic.
+     */
+    public static boolean isUpsertCreate() {
+        Properties merged = DbTest.getMergedProperties();
+        return "upsert".equalsIgnoreCase(merged.getProperty("secdb.create.mode", merged.getProperty("create.mode", "classic")));
+    }
+
+    /**
+     * Whether the secdb unit is connected to PostgreSQL, which the native SQL paths require.
+     */
+    public static boolean isPostgreSQL() {
+        Properties merged = DbTest.getMergedProperties();
+        String url = merged.getProperty("secdb.jakarta.persistence.jdbc.url", merged.getProperty("jakarta.persistence.jdbc.url", "jdbc:postgresql://localhost:5432/yourdb"));
+        return url.startsWith("jdbc:postgresql:");
+    }
+
+    /**
+     * The in-process Caffeine JCache manager backing the secdb second-level cache.  The SecDbUser region is created
+     * up front so its bounds come from secdb.cache.user.maximum-size (entries) and secdb.cache.user.expire-after-write
+     * (seconds, 0 for no expiry) rather than from the provider defaults.
+     */
+    public static CacheManager getCacheManager() {
+        if (refSecCacheManager.get() == null) {
+            Properties merged = DbTest.getMergedProperties();
+            CachingProvider provider = Caching.getCachingProvider(CaffeineCachingProvider.class.getName());
+            CacheManager cacheManager = provider.getCacheManager(provider.getDefaultURI(), SecDbConfig.class.getClassLoader());
+            if (cacheManager.getCache(SecDbUser.CACHE_REGION) == null) {
+                long maximumSize = Long.parseLong(merged.getProperty("secdb.cache.user.maximum-size", "100000"));
+                long expireAfterWrite = Long.parseLong(merged.getProperty("secdb.cache.user.expire-after-write", "600"));
+                CaffeineConfiguration<Object, Object> userRegion = new CaffeineConfiguration<>();
+                userRegion.setMaximumSize(OptionalLong.of(maximumSize));
+                if (expireAfterWrite > 0) {
+                    userRegion.setExpireAfterWrite(OptionalLong.of(TimeUnit.SECONDS.toNanos(expireAfterWrite)));
+                }
+                userRegion.setStatisticsEnabled(true);
+                cacheManager.createCache(SecDbUser.CACHE_REGION, userRegion);
+            }
+            refSecCacheManager.compareAndSet(null, cacheManager);
+        }
+        return refSecCacheManager.get();
+    }
+
     @Bean(name = "secJpaProperties")
     @Primary
     public Properties secJpaProperties() {
@@ -127,12 +361,18 @@ public class SecDbConfig {
             // String jakartaJtaDataSource = merged.getProperty("secdb.jakarta.persistence.jtaDataSource", merged.getProperty("jakarta.persistence.jtaDataSource", null));
             String hibernateDialect = merged.getProperty("secdb.hibernate.dialect", merged.getProperty("hibernate.dialect", "org.hibernate.dialect.PostgreSQLDialect"));
             String hibernateHbm2ddlAuto = merged.getProperty("secdb.hibernate.hbm2ddl.auto", merged.getProperty("hibernate.hbm2ddl.auto", "update"));
+            String schemaUpdateMode = merged.getProperty("secdb.schema.update-mode", merged.getProperty("schema.update-mode", "always"));
             String hibernateShowSql = merged.getProperty("secdb.hibernate.show_sql", merged.getProperty("hibernate.show_sql", "false"));
             String hibernateFormatSql = merged.getProperty("secdb.hibernate.format_sql", merged.getProperty("hibernate.format_sql", "false"));
             String hibernateConnectionPoolSize = merged.getProperty("secdb.hibernate.connection_pool_size", merged.getProperty("hibernate.connection_pool_size", "10"));
             String hibernateConnectionDatasource = merged.getProperty("secdb.hibernate.connection_datasource", merged.getProperty("hibernate.connection_datasource", null));
-            String hibernateCacheRegionFactoryClass = merged.getProperty("secdb.hibernate.cache.region.factory_class", merged.getProperty("hibernate.cache.region.factory_class", null));
+            String hibernateCacheUseSecondLevelCache = merged.getProperty("secdb.hibernate.cache.use_second_level_cache", merged.getProperty("hibernate.cache.use_second_level_cache", "true"));
+            String hibernateCacheRegionFactoryClass = merged.getProperty("secdb.hibernate.cache.region.factory_class", merged.getProperty("hibernate.cache.region.factory_class", "jcache"));
+            String hibernateGenerateStatistics = merged.getProperty("secdb.hibernate.generate_statistics", merged.getProperty("hibernate.generate_statistics", "false"));
             String hibernateDefaultSchema = merged.getProperty("secdb.hibernate.default_schema", "secdb");
+            String hibernateJdbcBatchSize = Integer.toString(getJdbcBatchSize());
+            String hibernateOrderInserts = merged.getProperty("secdb.hibernate.order_inserts", merged.getProperty("hibernate.order_inserts", "true"));
+            String hibernateOrderUpdates = merged.getProperty("secdb.hibernate.order_updates", merged.getProperty("hibernate.order_updates", "true"));
             // String hibernateTransactionJTAPlatform = merged.getProperty("secdb.hibernate.transaction.jta.platform", merged.getProperty("hibernate.transaction.jta.platform", "org.hibernate.engine.transaction.jta.platform.internal.SpringJtaPlatform"));
 
             Properties applicable = new Properties();
@@ -170,7 +410,15 @@ public class SecDbConfig {
                 applicable.setProperty("hibernate.dialect", hibernateDialect);
             }
             if (hibernateHbm2ddlAuto != null && !hibernateHbm2ddlAuto.isEmpty()) {
-                applicable.setProperty("hibernate.hbm2ddl.auto", hibernateHbm2ddlAuto);
+                if (hibernateHbm2ddlAuto.equals("update") && schemaUpdateMode.equalsIgnoreCase("fingerprint")) {
+                    // DbTestSchemaFingerprint runs the update itself, and only when the mapped metadata has changed
+                    DbTestSchemaFingerprint fingerprint = new DbTestSchemaFingerprint("secdb", hibernateDefaultSchema, secDataSource());
+                    applicable.setProperty("hibernate.hbm2ddl.auto", "none");
+                    applicable.put("hibernate.integrator_provider", (IntegratorProvider) () -> List.of(fingerprint));
+                }
+                else {
+                    applicable.setProperty("hibernate.hbm2ddl.auto", hibernateHbm2ddlAuto);
+                }
             }
             if (hibernateShowSql != null && !hibernateShowSql.isEmpty()) {
                 applicable.setProperty("hibernate.show_sql", hibernateShowSql);
@@ -184,12 +432,37 @@ public class SecDbConfig {
             if (hibernateConnectionDatasource != null && !hibernateConnectionDatasource.isEmpty()) {
                 applicable.setProperty("hibernate.connection.datasource", hibernateConnectionDatasource);
             }
+            if (hibernateCacheUseSecondLevelCache != null && !hibernateCacheUseSecondLevelCache.isEmpty()) {
+                applicable.setProperty("hibernate.cache.use_second_level_cache", hibernateCacheUseSecondLevelCache);
+            }
             if (hibernateCacheRegionFactoryClass != null && !hibernateCacheRegionFactoryClass.isEmpty()) {
                 applicable.setProperty("hibernate.cache.region.factory_class", hibernateCacheRegionFactoryClass);
+                // The bundled JCache regions are pre-built by getCacheManager() so their eviction bounds are applied
+                boolean jcache = hibernateCacheRegionFactoryClass.equals("jcache") || hibernateCacheRegionFactoryClass.endsWith(".JCacheRegionFactory");
+                if (jcache && Boolean.parseBoolean(hibernateCacheUseSecondLevelCache)) {
+                    applicable.put("hibernate.javax.cache.cache_manager", getCacheManager());
+                    applicable.setProperty("hibernate.javax.cache.missing_cache_strategy", "create");
+                }
+            }
+            if (hibernateGenerateStatistics != null && !hibernateGenerateStatistics.isEmpty()) {
+                applicable.setProperty("hibernate.generate_statistics", hibernateGenerateStatistics);
             }
             if (hibernateDefaultSchema != null && !hibernateDefaultSchema.isEmpty()) {
                 applicable.setProperty("hibernate.default_schema", hibernateDefaultSchema);
             }
+            if (hibernateJdbcBatchSize != null && !hibernateJdbcBatchSize.isEmpty()) {
+                applicable.setProperty("hibernate.jdbc.batch_size", hibernateJdbcBatchSize);
+            }
+            if (hibernateOrderInserts != null && !hibernateOrderInserts.isEmpty()) {
+                applicable.setProperty("hibernate.order_inserts", hibernateOrderInserts);
+            }
+            if (hibernateOrderUpdates != null && !hibernateOrderUpdates.isEmpty()) {
+                applicable.setProperty("hibernate.order_updates", hibernateOrderUpdates);
+            }
+            // Pooled connections already have auto-commit off, so Hibernate need not check it at the start of every transaction
+            if (!getPoolConfig().isAutoCommit()) {
+                applicable.setProperty("hibernate.connection.provider_disables_autocommit", "true");
+            }
             // // A JTA implementation is required as a standalone application, but you can use implementations for specific J2EE servers, such as WebLogic, too
             // if (hibernateTransactionJTAPlatform != null && !hibernateTransactionJTAPlatform.isEmpty()) {
             //     applicable.setProperty("hibernate.transaction.jta.platform", hibernateTransactionJTAPlatform);
@@ -235,6 +508,13 @@ public class SecDbConfig {
                 emfBean.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
                 emfBean.setJpaProperties(secJpaProperties);
                 emfBean.setPersistenceUnitName(persistenceUnitName);
+                if (isSingleTableInheritance()) {
+                    emfBean.setMappingResources(SINGLE_TABLE_MAPPING);
+                }
+                if (isParallelBootstrap()) {
+                    // Hibernate boots on its own thread; getObject() hands out a proxy which blocks until the factory is ready
+                    emfBean.setBootstrapExecutor(new SimpleAsyncTaskExecutor("SecDbBootstrap-"));
+                }
                 return emfBean;
                 // refSecEntityManagerFactoryBean.compareAndSet(null, emfBean);
             } catch (Exception e) {
@@ -251,7 +531,7 @@ public class SecDbConfig {
         @Qualifier("secEntityManagerFactory") LocalContainerEntityManagerFactoryBean secEntityManagerFactory) {
             EntityManagerFactory f = secEntityManagerFactory.getObject();
             if (f != null) {
-                return new JpaTransactionManager(f);
+                return new DbTestTimedTransactionManager(f, "secTransactionManager", DbTestMetrics.getRegistry());
             }
             else {
                 System.err.println("ERROR: SecDbConfig.secTransactionManager() secEntityManagerFactoryBean.getObject() returned null");
@@ -68,7 +68,8 @@ import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
 @Table(
     name = "sec_mgr", schema = "secdb",
     indexes = {
-        @Index(name = "sec_mgr_deptcode_ax", columnList = "deptcode", unique = true)
+        @Index(name = "sec_mgr_deptcode_ax", columnList = "deptcode", unique = true),
+        @Index(name = "sec_mgr_dxsubdept", columnList = "subdeptof", unique = false)
     }
 )
 @Transactional(Transactional.TxType.SUPPORTS)
@@ -0,0 +1,101 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest.secdb;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
+
+import jakarta.persistence.AttributeOverride;
+import jakarta.persistence.AttributeOverrides;
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+
+/**
+ * The (ancestor, descendant) primary key of SecDbManagerClosure.
+ */
+@Embeddable
+public class SecDbManagerClosureKey implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @AttributeOverrides({
+        @AttributeOverride(name = "bytes", column = @Column(name = "ancestor_pid", nullable = false, length = CFLibDbKeyHash256.HASH_LENGTH))
+    })
+    private CFLibDbKeyHash256 ancestorPid;
+
+    @AttributeOverrides({
+        @AttributeOverride(name = "bytes", column = @Column(name = "descendant_pid", nullable = false, length = CFLibDbKeyHash256.HASH_LENGTH))
+    })
+    private CFLibDbKeyHash256 descendantPid;
+
+    public SecDbManagerClosureKey() {
+    }
+
+    public SecDbManagerClosureKey(CFLibDbKeyHash256 ancestorPid, CFLibDbKeyHash256 descendantPid) {
+        this.ancestorPid = ancestorPid;
+        this.descendantPid = descendantPid;
+    }
+
+    public CFLibDbKeyHash256 getAncestorPid() {
+        return ancestorPid;
+    }
+
+    public CFLibDbKeyHash256 getDescendantPid() {
+        return descendantPid;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof SecDbManagerClosureKey)) return false;
+        SecDbManagerClosureKey other = (SecDbManagerClosureKey) o;
+        return Objects.equals(ancestorPid, other.ancestorPid) && Objects.equals(descendantPid, other.descendantPid);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(ancestorPid, descendantPid);
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest.secdb;
+
+import java.util.List;
+
+import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+public interface SecDbManagerClosureRepository extends JpaRepository<SecDbManagerClosure, SecDbManagerClosureKey> {
+
+    /**
+     * Whether pid is strictly below ancestorPid, answered from the closure primary key.
+     */
+    @Query("select case when count(c) > 0 then true else false end from SecDbManagerClosure c"
+        + " where c.key.ancestorPid = :ancestorPid and c.key.descendantPid = :pid and c.depth > 0")
+    boolean isUnder(@Param("pid") CFLibDbKeyHash256 pid, @Param("ancestorPid") CFLibDbKeyHash256 ancestorPid);
+
+    /**
+     * (SecDbManager, depth) of every manager below pid down to maxDepth levels, shallowest first.
+     */
+    @Query("select m, c.depth from SecDbManagerClosure c join SecDbManager m on m.pid = c.key.descendantPid"
+        + " where c.key.ancestorPid = :pid and c.depth > 0 and c.depth <= :maxDepth order by c.depth, m.departmentCode")
+    List<Object[]> findDescendants(@Param("pid") CFLibDbKeyHash256 pid, @Param("maxDepth") int maxDepth);
+
+    /**
+     * (SecDbManager, depth) of every manager above pid, nearest first.
+     */
+    @Query("select m, c.depth from SecDbManagerClosure c join SecDbManager m on m.pid = c.key.ancestorPid"
+        + " where c.key.descendantPid = :pid and c.depth > 0 order by c.depth")
+    List<Object[]> findAncestors(@Param("pid") CFLibDbKeyHash256 pid);
+
+    /**
+     * The number of managers without their depth 0 closure row, non-zero when the closure needs rebuilding.
+     */
+    @Query("select count(m) from SecDbManager m where not exists"
+        + " (select 1 from SecDbManagerClosure c where c.key.ancestorPid = m.pid and c.key.descendantPid = m.pid)")
+    long countUnlinkedManagers();
+}
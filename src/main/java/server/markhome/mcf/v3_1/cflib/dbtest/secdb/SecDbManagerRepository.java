@@ -43,11 +43,21 @@
 package server.markhome.mcf.v3_1.cflib.dbtest.secdb;
 
 import java.util.List;
+import java.util.Optional;
 
 import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 
 public interface SecDbManagerRepository extends JpaRepository<SecDbManager, CFLibDbKeyHash256> {
     List<SecDbManager> findByEmail(String email);
     List<SecDbManager> findByMemberDeptCode(String memberDeptCode);
+    Optional<SecDbManager> findByUsername(String username);
+    List<SecDbManager> findByDepartmentCode(String departmentCode);
+
+    /**
+     * First and following keyset pages of all managers in department code order, walking the unique deptcode index.
+     */
+    List<SecDbManager> findByOrderByDepartmentCodeAsc(Limit limit);
+    List<SecDbManager> findByDepartmentCodeGreaterThanOrderByDepartmentCodeAsc(String departmentCode, Limit limit);
 }
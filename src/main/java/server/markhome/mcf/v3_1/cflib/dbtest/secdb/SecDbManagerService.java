@@ -42,25 +42,39 @@
  */
 package server.markhome.mcf.v3_1.cflib.dbtest.secdb;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 
 import server.markhome.mcf.v3_1.cflib.CFLibDbException;
 import server.markhome.mcf.v3_1.cflib.CFLibNullArgumentException;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTest;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestBatchInserter;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestKeysetPage;
 import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
 import server.markhome.mcf.v3_1.cflib.inz.Inz;
 
+import org.hibernate.query.NativeQuery;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.data.domain.Example;
-import org.springframework.data.domain.ExampleMatcher;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
 import jakarta.persistence.NoResultException;
+import jakarta.persistence.PersistenceContext;
 
 @Service("SecDbManagerService")
 public class SecDbManagerService {
@@ -69,9 +83,136 @@ public class SecDbManagerService {
     @Qualifier("secEntityManagerFactory")
     private LocalContainerEntityManagerFactoryBean secEntityManagerFactoryBean;
     
+    @PersistenceContext(unitName = SecDbConfig.persistenceUnitName)
+    private EntityManager secEntityManager;
+
     @Autowired
     private SecDbManagerRepository secDbManagerRepository;
 
+    @Autowired
+    private SecDbManagerClosureRepository secDbManagerClosureRepository;
+
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    /**
+     * The native statements which name the table holding the manager columns, built by initSql() when the bean is
+     * constructed so they follow the secdb.inheritance of the context that owns the bean rather than the one loaded first.
+     */
+    private String upsertManagerSql;
+    private String subtreeSql;
+    private String ancestorsSql;
+    private String closureRebuildSql;
+    private String pageManagersSql;
+    private String pageManagersAfterSql;
+
+    private static final String TREE_BREADTH_FIRST = " ORDER BY tree.depth, m.deptcode";
+
+    /**
+     * The orders of the keyset listings, which tag their continuation tokens.
+     */
+    public final static String PAGE_ORDER_PID = "sec_mgr.pid";
+    public final static String PAGE_ORDER_DEPTCODE = "sec_mgr.deptcode";
+
+    private static final String CLOSURE_SELF_SQL =
+        "INSERT INTO secdb.sec_mgr_closure (ancestor_pid, descendant_pid, depth)"
+        + " SELECT :pid, :pid, 0"
+        + " WHERE NOT EXISTS (SELECT 1 FROM secdb.sec_mgr_closure WHERE ancestor_pid = :pid AND descendant_pid = :pid)";
+
+    private static final String CLOSURE_ATTACH_SQL =
+        "INSERT INTO secdb.sec_mgr_closure (ancestor_pid, descendant_pid, depth)"
+        + " SELECT sup.ancestor_pid, sub.descendant_pid, sup.depth + sub.depth + 1"
+        + " FROM secdb.sec_mgr_closure sup JOIN secdb.sec_mgr_closure sub ON sub.ancestor_pid = :pid"
+        + " WHERE sup.descendant_pid = :parentPid"
+        + " AND NOT EXISTS (SELECT 1 FROM secdb.sec_mgr_closure x"
+        + " WHERE x.ancestor_pid = sup.ancestor_pid AND x.descendant_pid = sub.descendant_pid)";
+
+    private static final String CLOSURE_DETACH_SQL =
+        "DELETE FROM secdb.sec_mgr_closure"
+        + " WHERE descendant_pid IN (SELECT descendant_pid FROM secdb.sec_mgr_closure WHERE ancestor_pid = :pid)"
+        + " AND ancestor_pid NOT IN (SELECT descendant_pid FROM secdb.sec_mgr_closure WHERE ancestor_pid = :pid)";
+
+    private static final String CLOSURE_REMOVE_SQL =
+        "DELETE FROM secdb.sec_mgr_closure WHERE ancestor_pid = :pid OR descendant_pid = :pid";
+
+    private static final String CLOSURE_CLEAR_SQL = "DELETE FROM secdb.sec_mgr_closure";
+
+    /**
+     * The pg_advisory_xact_lock key serializing the writers of secdb.sec_mgr_closure ("sec_mgrc" in ASCII).
+     */
+    private static final long CLOSURE_LOCK_KEY = 0x7365635f6d677263L;
+
+    private static final String CLOSURE_LOCK_SQL = "SELECT COUNT(*) FROM (SELECT pg_advisory_xact_lock(:key)) l";
+
+    /**
+     * The depth at which findSubtree() and findAncestors() stop when no limit is given, bounding the walk should a
+     * subdeptof cycle ever be written.  Set by secdb.managers.tree.max-depth, default 64.
+     */
+    public static int getMaxTreeDepth() {
+        return Integer.parseInt(DbTest.getMergedProperties().getProperty("secdb.managers.tree.max-depth", "64"));
+    }
+
+    @PostConstruct
+    public void initSql() {
+        String managerTable = SecDbConfig.getManagerTable();
+        String managerCondition = SecDbConfig.getManagerCondition("r");
+        if (SecDbConfig.isSingleTableInheritance()) {
+            upsertManagerSql = "WITH ins_user AS ("
+                + " INSERT INTO secdb.sec_user (" + SecDbUserService.USER_COLUMNS + ", title, deptcode, subdeptof)"
+                + " VALUES (:pid, 1, :username, :email, :createdAt, :createdBy, :updatedAt, :updatedBy, :memberDeptCode,"
+                + " CAST(:title AS varchar), CAST(:deptCode AS varchar), CAST(:subDeptOf AS bytea))"
+                + " ON CONFLICT (pid) DO NOTHING"
+                + " RETURNING " + SecDbUserService.USER_COLUMNS + ", title, deptcode, subdeptof)"
+                + " SELECT * FROM ins_user"
+                + " UNION ALL"
+                + SecDbUserService.selectExistingUser();
+        }
+        else {
+            upsertManagerSql = "WITH ins_user AS ("
+                + " INSERT INTO secdb.sec_user (" + SecDbUserService.USER_COLUMNS + ")"
+                + " VALUES (:pid, 1, :username, :email, :createdAt, :createdBy, :updatedAt, :updatedBy, :memberDeptCode)"
+                + " ON CONFLICT (pid) DO NOTHING"
+                + " RETURNING " + SecDbUserService.USER_COLUMNS + "),"
+                + " ins_mgr AS ("
+                + " INSERT INTO secdb.sec_mgr (pid, title, deptcode, subdeptof)"
+                + " SELECT pid, CAST(:title AS varchar), CAST(:deptCode AS varchar), CAST(:subDeptOf AS bytea) FROM ins_user"
+                + " RETURNING pid, title, deptcode, subdeptof)"
+                + " SELECT ins_user.*, ins_mgr.title, ins_mgr.deptcode, ins_mgr.subdeptof FROM ins_user JOIN ins_mgr ON ins_mgr.pid = ins_user.pid"
+                + " UNION ALL"
+                + SecDbUserService.selectExistingUser();
+        }
+        String treeColumns =
+            " SELECT u.pid, u.user_type, u.username, u.email, u.created_at, u.created_by, u.updated_at, u.updated_by, u.member_deptcode,"
+            + " m.title, m.deptcode, m.subdeptof, tree.depth AS tree_depth"
+            + " FROM tree JOIN secdb.sec_user u ON u.pid = tree.pid JOIN " + managerTable + " m ON m.pid = tree.pid";
+        subtreeSql = "WITH RECURSIVE tree (pid, depth) AS ("
+            + " SELECT r.pid, 0 FROM " + managerTable + " r WHERE r.pid = :pid AND " + managerCondition
+            + " UNION ALL"
+            + " SELECT c.pid, tree.depth + 1 FROM " + managerTable + " c JOIN tree ON c.subdeptof = tree.pid"
+            + " WHERE tree.depth < :maxDepth)"
+            + treeColumns;
+        ancestorsSql = "WITH RECURSIVE tree (pid, subdeptof, depth) AS ("
+            + " SELECT r.pid, r.subdeptof, 0 FROM " + managerTable + " r WHERE r.pid = :pid AND " + managerCondition
+            + " UNION ALL"
+            + " SELECT p.pid, p.subdeptof, tree.depth + 1 FROM " + managerTable + " p JOIN tree ON p.pid = tree.subdeptof"
+            + " WHERE tree.depth < :maxDepth)"
+            + treeColumns;
+        closureRebuildSql = "INSERT INTO secdb.sec_mgr_closure (ancestor_pid, descendant_pid, depth)"
+            + " WITH RECURSIVE paths (ancestor_pid, descendant_pid, depth) AS ("
+            + " SELECT r.pid, r.pid, 0 FROM " + managerTable + " r WHERE " + managerCondition
+            + " UNION ALL"
+            + " SELECT paths.ancestor_pid, c.pid, paths.depth + 1 FROM paths JOIN " + managerTable + " c ON c.subdeptof = paths.descendant_pid"
+            + " WHERE paths.depth < :maxDepth)"
+            + " SELECT ancestor_pid, descendant_pid, MIN(depth) FROM paths GROUP BY ancestor_pid, descendant_pid";
+        String selectPageManagers =
+            " SELECT u.pid, u.user_type, u.username, u.email, u.created_at, u.created_by, u.updated_at, u.updated_by, u.member_deptcode,"
+            + " m.title, m.deptcode, m.subdeptof"
+            + " FROM " + managerTable + " m JOIN secdb.sec_user u ON u.pid = m.pid"
+            + " WHERE " + SecDbConfig.getManagerCondition("m");
+        pageManagersSql = selectPageManagers + " ORDER BY m.pid LIMIT :limit";
+        pageManagersAfterSql = selectPageManagers + " AND m.pid > :after ORDER BY m.pid LIMIT :limit";
+    }
+
     @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
     public SecDbUser find(CFLibDbKeyHash256 pid) {
         return secDbManagerRepository.findById(pid).orElse(null);
@@ -82,16 +223,7 @@ public class SecDbManagerService {
         if (name == null || name.isEmpty()) {
             return null;
         }
-        SecDbManager probe = new SecDbManager();
-        probe.setUsername(name);
-
-        ExampleMatcher matcher = ExampleMatcher.matching()
-            .withIgnoreNullValues()
-            .withMatcher("username", ExampleMatcher.GenericPropertyMatchers.exact());
-
-        Example<SecDbManager> example = Example.of(probe, matcher);
-
-        return secDbManagerRepository.findOne(example).orElse(null);
+        return secDbManagerRepository.findByUsername(name).orElse(null);
     }
 
     @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
@@ -119,18 +251,284 @@ public class SecDbManagerService {
         if (deptCode == null || deptCode.isEmpty()) {
             return null;
         }
-        SecDbManager probe = new SecDbManager();
-        probe.setDepartmentCode(deptCode);
-
-        ExampleMatcher matcher = ExampleMatcher.matching()
-            .withIgnoreNullValues()
-            .withMatcher("deptcode", ExampleMatcher.GenericPropertyMatchers.exact());
+        return secDbManagerRepository.findByDepartmentCode(deptCode);
+    }
 
-        Example<SecDbManager> example = Example.of(probe, matcher);
+    /**
+     * Keyset page of all managers in pid order.  Pass a null token for the first page and the nextToken of each page
+     * for the one after it.
+     */
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public DbTestKeysetPage<SecDbManager> findPage(String token, int limit) {
+        int effective = DbTestKeysetPage.effectiveLimit(limit);
+        if (effective == 0) {
+            return DbTestKeysetPage.empty();
+        }
+        byte[] after = token == null ? null : DbTestKeysetPage.decodeToken(PAGE_ORDER_PID, token, 1)[0];
+        @SuppressWarnings("unchecked")
+        NativeQuery<SecDbManager> query = secEntityManager.createNativeQuery(after == null ? pageManagersSql : pageManagersAfterSql, SecDbManager.class).unwrap(NativeQuery.class);
+        query.addSynchronizedEntityClass(SecDbManager.class);
+        if (after != null) {
+            query.setParameter("after", after, byte[].class);
+        }
+        query.setParameter("limit", effective + 1, Integer.class);
+        return DbTestKeysetPage.of(query.getResultList(), effective, PAGE_ORDER_PID, m -> new byte[][] { m.getPid().getBytes() });
+    }
 
-        return secDbManagerRepository.findAll(example);
+    /**
+     * Keyset page of all managers in department code order.
+     */
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public DbTestKeysetPage<SecDbManager> findPageOrderByDeptCode(String token, int limit) {
+        int effective = DbTestKeysetPage.effectiveLimit(limit);
+        if (effective == 0) {
+            return DbTestKeysetPage.empty();
+        }
+        List<SecDbManager> rows;
+        if (token == null) {
+            rows = secDbManagerRepository.findByOrderByDepartmentCodeAsc(Limit.of(effective + 1));
+        }
+        else {
+            String after = new String(DbTestKeysetPage.decodeToken(PAGE_ORDER_DEPTCODE, token, 1)[0], StandardCharsets.UTF_8);
+            rows = secDbManagerRepository.findByDepartmentCodeGreaterThanOrderByDepartmentCodeAsc(after, Limit.of(effective + 1));
+        }
+        return DbTestKeysetPage.of(rows, effective, PAGE_ORDER_DEPTCODE, m -> new byte[][] { m.getDepartmentCode().getBytes(StandardCharsets.UTF_8) });
     }
     
+    /**
+     * The manager and every department below it in one recursive query, instead of walking the lazy departments
+     * associations a level at a time.  maxDepth limits how many levels below the manager are read (negative for no
+     * limit beyond secdb.managers.tree.max-depth); breadthFirst orders the result by depth then department code,
+     * otherwise the order is whatever the database produces.  An unknown pid yields an empty list.
+     */
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public List<SecDbManagerTreeNode> findSubtree(CFLibDbKeyHash256 pid, int maxDepth, boolean breadthFirst) {
+        return findTree(subtreeSql, pid, maxDepth, breadthFirst);
+    }
+
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public List<SecDbManagerTreeNode> findSubtree(CFLibDbKeyHash256 pid) {
+        return findTree(subtreeSql, pid, -1, true);
+    }
+
+    /**
+     * The manager and the chain of departments it is a sub-department of, nearest first, in one recursive query.
+     * maxDepth limits how many levels above the manager are read (negative for no limit beyond
+     * secdb.managers.tree.max-depth).
+     */
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public List<SecDbManagerTreeNode> findAncestors(CFLibDbKeyHash256 pid, int maxDepth) {
+        return findTree(ancestorsSql, pid, maxDepth, true);
+    }
+
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public List<SecDbManagerTreeNode> findAncestors(CFLibDbKeyHash256 pid) {
+        return findTree(ancestorsSql, pid, -1, true);
+    }
+
+    private List<SecDbManagerTreeNode> findTree(String sql, CFLibDbKeyHash256 pid, int maxDepth, boolean breadthFirst) {
+        List<SecDbManagerTreeNode> nodes = new ArrayList<>();
+        if (pid == null || pid.isNull()) {
+            return nodes;
+        }
+        int limit = getMaxTreeDepth();
+        if (maxDepth >= 0 && maxDepth < limit) {
+            limit = maxDepth;
+        }
+        @SuppressWarnings("unchecked")
+        NativeQuery<Object[]> query = secEntityManager.createNativeQuery(breadthFirst ? sql + TREE_BREADTH_FIRST : sql).unwrap(NativeQuery.class);
+        query.addEntity(SecDbManager.class);
+        query.addScalar("tree_depth", Integer.class);
+        query.addSynchronizedEntityClass(SecDbManager.class);
+        query.setParameter("pid", pid.getBytes(), byte[].class);
+        query.setParameter("maxDepth", limit, Integer.class);
+        for (Object[] row : query.getResultList()) {
+            nodes.add(new SecDbManagerTreeNode((SecDbManager)row[0], ((Number)row[1]).intValue()));
+        }
+        return nodes;
+    }
+
+    /**
+     * Whether the manager pid is somewhere below ancestorPid, in one secdb.sec_mgr_closure primary key probe however
+     * deep the hierarchy is.  A manager is not under itself.
+     */
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public boolean isUnder(CFLibDbKeyHash256 pid, CFLibDbKeyHash256 ancestorPid) {
+        if (pid == null || pid.isNull() || ancestorPid == null || ancestorPid.isNull()) {
+            return false;
+        }
+        return secDbManagerClosureRepository.isUnder(pid, ancestorPid);
+    }
+
+    /**
+     * Every manager below pid, at most maxDepth levels down (negative for all), shallowest first, read from the closure
+     * table with a single indexed query.  Unlike findSubtree() the manager itself is not included.
+     */
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public List<SecDbManagerTreeNode> findDescendants(CFLibDbKeyHash256 pid, int maxDepth) {
+        if (pid == null || pid.isNull()) {
+            return new ArrayList<>();
+        }
+        return toTreeNodes(secDbManagerClosureRepository.findDescendants(pid, maxDepth < 0 ? Integer.MAX_VALUE : maxDepth));
+    }
+
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public List<SecDbManagerTreeNode> findDescendants(CFLibDbKeyHash256 pid) {
+        return findDescendants(pid, -1);
+    }
+
+    /**
+     * Every manager above pid, nearest first, read from the closure table with a single indexed query.  Unlike
+     * findAncestors() the manager itself is not included.
+     */
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public List<SecDbManagerTreeNode> findSuperiors(CFLibDbKeyHash256 pid) {
+        if (pid == null || pid.isNull()) {
+            return new ArrayList<>();
+        }
+        return toTreeNodes(secDbManagerClosureRepository.findAncestors(pid));
+    }
+
+    private static List<SecDbManagerTreeNode> toTreeNodes(List<Object[]> rows) {
+        List<SecDbManagerTreeNode> nodes = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            nodes.add(new SecDbManagerTreeNode((SecDbManager)row[0], ((Number)row[1]).intValue()));
+        }
+        return nodes;
+    }
+
+    /**
+     * Recomputes secdb.sec_mgr_closure from the subdeptof links of the managers, returning the number of rows written.
+     */
+    @Transactional(propagation = Propagation.REQUIRED, rollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public int rebuildClosure() {
+        lockClosure();
+        secEntityManager.flush();
+        closureUpdate(CLOSURE_CLEAR_SQL).executeUpdate();
+        NativeQuery<?> query = closureUpdate(closureRebuildSql);
+        query.setParameter("maxDepth", getMaxTreeDepth(), Integer.class);
+        return query.executeUpdate();
+    }
+
+    /**
+     * Rebuilds the closure at startup when some manager has no closure row, as happens the first time the table is
+     * created over an existing hierarchy or after managers were written without going through this service.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(propagation = Propagation.REQUIRED, rollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public void verifyClosure() {
+        long unlinked = secDbManagerClosureRepository.countUnlinkedManagers();
+        if (unlinked > 0) {
+            int rows = rebuildClosure();
+            System.err.println("SecDbManagerService rebuilt secdb.sec_mgr_closure (" + rows + " rows) for " + unlinked + " unlinked managers");
+        }
+    }
+
+    /**
+     * Serializes the writers of secdb.sec_mgr_closure until the transaction ends.  Each maintenance statement derives
+     * rows from the closure rows visible to its own READ COMMITTED snapshot, so without the lock a create under a
+     * manager that is concurrently being moved, or two overlapping moves, would leave the closure out of step with the
+     * subdeptof links, and the cycle check in update() could pass on both sides of a pair of crossing moves.  Taken
+     * before the closure is read, so every statement after it sees the work of the writer it waited for.  Databases
+     * other than PostgreSQL have no advisory lock, and there the closure must be written by one transaction at a time.
+     */
+    private void lockClosure() {
+        if (SecDbConfig.isPostgreSQL()) {
+            secEntityManager.createNativeQuery(CLOSURE_LOCK_SQL).setParameter("key", CLOSURE_LOCK_KEY).getSingleResult();
+        }
+    }
+
+    private NativeQuery<?> closureUpdate(String sql) {
+        NativeQuery<?> query = secEntityManager.createNativeQuery(sql).unwrap(NativeQuery.class);
+        query.addSynchronizedEntityClass(SecDbManagerClosure.class);
+        return query;
+    }
+
+    /**
+     * Adds the closure rows placing pid, and everything already recorded below it, under parentPid (or at the root).
+     * Idempotent, and order independent: a parent linked after its children still picks up their rows.
+     */
+    private void linkClosure(CFLibDbKeyHash256 pid, CFLibDbKeyHash256 parentPid) {
+        closureUpdate(CLOSURE_SELF_SQL).setParameter("pid", pid.getBytes(), byte[].class).executeUpdate();
+        if (parentPid != null && !parentPid.isNull()) {
+            closureUpdate(CLOSURE_SELF_SQL).setParameter("pid", parentPid.getBytes(), byte[].class).executeUpdate();
+            closureUpdate(CLOSURE_ATTACH_SQL)
+                .setParameter("pid", pid.getBytes(), byte[].class)
+                .setParameter("parentPid", parentPid.getBytes(), byte[].class)
+                .executeUpdate();
+        }
+    }
+
+    /**
+     * Set-based linkClosure() for the managers createAll() flushed in one batch: one INSERT of the depth 0 rows of
+     * the managers and their parents from a VALUES list, then one attach INSERT ... SELECT over every (pid, parent)
+     * pair of the batch.  A single attach cannot see the rows it inserts itself, and two links of a batch can need
+     * each other's rows even when neither parent is linked in the batch (a manager whose subtree reaches the other
+     * link through rows already in the closure), so when the batch links more than one manager the attach is
+     * repeated until it adds nothing.  In a tree each (ancestor, descendant) pair has one path, so rows derived
+     * twice in a pass are identical and DISTINCT folds them.
+     */
+    private void linkClosureAll(List<SecDbManager> managers) {
+        Set<CFLibDbKeyHash256> selfPids = new LinkedHashSet<>();
+        List<CFLibDbKeyHash256> linkPids = new ArrayList<>(managers.size());
+        List<CFLibDbKeyHash256> linkParentPids = new ArrayList<>(managers.size());
+        for (SecDbManager manager : managers) {
+            selfPids.add(manager.getPid());
+            CFLibDbKeyHash256 parentPid = parentPidOf(manager);
+            if (parentPid != null && !parentPid.isNull()) {
+                selfPids.add(parentPid);
+                linkPids.add(manager.getPid());
+                linkParentPids.add(parentPid);
+            }
+        }
+        if (selfPids.isEmpty()) {
+            return;
+        }
+
+        StringBuilder selfSql = new StringBuilder("INSERT INTO secdb.sec_mgr_closure (ancestor_pid, descendant_pid, depth)"
+            + " SELECT v.pid, v.pid, 0 FROM (VALUES ");
+        for (int i = 0; i < selfPids.size(); i++) {
+            selfSql.append(i == 0 ? "" : ", ").append("(:p").append(i).append(')');
+        }
+        selfSql.append(") AS v (pid)"
+            + " WHERE NOT EXISTS (SELECT 1 FROM secdb.sec_mgr_closure x WHERE x.ancestor_pid = v.pid AND x.descendant_pid = v.pid)");
+        NativeQuery<?> self = closureUpdate(selfSql.toString());
+        int i = 0;
+        for (CFLibDbKeyHash256 pid : selfPids) {
+            self.setParameter("p" + i++, pid.getBytes(), byte[].class);
+        }
+        self.executeUpdate();
+        if (linkPids.isEmpty()) {
+            return;
+        }
+
+        StringBuilder attachSql = new StringBuilder("INSERT INTO secdb.sec_mgr_closure (ancestor_pid, descendant_pid, depth)"
+            + " SELECT DISTINCT sup.ancestor_pid, sub.descendant_pid, sup.depth + sub.depth + 1 FROM (VALUES ");
+        for (i = 0; i < linkPids.size(); i++) {
+            attachSql.append(i == 0 ? "" : ", ").append("(:c").append(i).append(", :p").append(i).append(')');
+        }
+        attachSql.append(") AS l (pid, parent_pid)"
+            + " JOIN secdb.sec_mgr_closure sup ON sup.descendant_pid = l.parent_pid"
+            + " JOIN secdb.sec_mgr_closure sub ON sub.ancestor_pid = l.pid"
+            + " WHERE NOT EXISTS (SELECT 1 FROM secdb.sec_mgr_closure x"
+            + " WHERE x.ancestor_pid = sup.ancestor_pid AND x.descendant_pid = sub.descendant_pid)");
+        NativeQuery<?> attach = closureUpdate(attachSql.toString());
+        for (i = 0; i < linkPids.size(); i++) {
+            attach.setParameter("c" + i, linkPids.get(i).getBytes(), byte[].class);
+            attach.setParameter("p" + i, linkParentPids.get(i).getBytes(), byte[].class);
+        }
+        boolean chained = linkPids.size() > 1;
+        int inserted;
+        do {
+            inserted = attach.executeUpdate();
+        } while (chained && inserted > 0);
+    }
+
+    private static CFLibDbKeyHash256 parentPidOf(SecDbManager manager) {
+        SecDbManager parent = manager.getSubDepartmentOf();
+        return parent != null ? parent.getPid() : null;
+    }
+
     @Transactional(propagation = Propagation.REQUIRED, rollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
     public SecDbManager create(SecDbManager data) {
         if (data == null) {
@@ -140,19 +538,29 @@ public class SecDbManagerService {
         boolean generatedPid = false;
         try {
             if (data.getPid() == null) {
-                data.setPid(new CFLibDbKeyHash256(0));
+                data.setPid(SecDbConfig.getPidGenerator().next());
                 generatedPid = true;
             }
             LocalDateTime now = LocalDateTime.now();
             data.setCreatedAt(now);
             data.setUpdatedAt(now);
 
+            SecDbManager created;
+            if (SecDbConfig.isUpsertCreate()) {
+                created = upsert(data);
+            }
             // Check if already exists
-            if (data.getPid() != null && secDbManagerRepository.existsById(data.getPid())) {
-                return secDbManagerRepository.findById(data.getPid()).orElse(null);
+            else if (data.getPid() != null && secDbManagerRepository.existsById(data.getPid())) {
+                created = secDbManagerRepository.findById(data.getPid()).orElse(null);
             }
-
-            return secDbManagerRepository.save(data);
+            else {
+                created = secDbManagerRepository.save(data);
+            }
+            if (created != null) {
+                lockClosure();
+                linkClosure(created.getPid(), parentPidOf(created));
+            }
+            return created;
         } catch (Exception e) {
             // Remove auto-generated pid if there was an error
             if (generatedPid) {
@@ -164,6 +572,62 @@ public class SecDbManagerService {
         }
     }
 
+    /**
+     * Bulk equivalent of create(), returning the persisted managers in input order.
+     * Pids that already exist resolve to the existing row as they do for create(), but the existence check is one
+     * IN query per JDBC batch and the inserts are flushed as ordered JDBC batches, with the persistence context
+     * cleared after each batch so memory stays bounded.  Entities the caller loaded earlier in the same transaction
+     * are detached by those clears.
+     */
+    @Transactional(propagation = Propagation.REQUIRED, rollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public List<SecDbManager> createAll(Collection<? extends SecDbManager> data) {
+        List<SecDbManager> created = new ArrayList<>(data == null ? 0 : data.size());
+        if (data == null || data.isEmpty()) {
+            return created;
+        }
+        try {
+            lockClosure();
+            LocalDateTime now = LocalDateTime.now();
+            return new DbTestBatchInserter<SecDbManager>(secEntityManager, SecDbConfig.getJdbcBatchSize(), SecDbManager::getPid, secDbManagerRepository::findAllById)
+                .prepare(manager -> {
+                    if (manager.getPid() == null) {
+                        manager.setPid(SecDbConfig.getPidGenerator().next());
+                    }
+                    manager.setCreatedAt(now);
+                    manager.setUpdatedAt(now);
+                })
+                .afterFlush(this::linkClosureAll)
+                .insertAll(data);
+        } catch (Exception e) {
+            System.err.println(String.format(Inz.x("cflib.dbtest.SecDbManagerService.rethrow"), e.getClass().getName(), "createAll", e.getLocalizedMessage()));
+            e.printStackTrace(System.err);
+            throw new CFLibDbException(SecDbManagerService.class, "createAll", String.format(Inz.s("cflib.dbtest.SecDbManagerService.rethrow"), e.getClass().getName(), e.getMessage()), "createAll", String.format(Inz.x("cflib.dbtest.SecDbManagerService.rethrow"), e.getClass().getName(), "createAll", e.getLocalizedMessage()), e);
+        }
+    }
+
+    /**
+     * Inserts the sec_user and sec_mgr rows of the manager (or the single sec_user row under single-table inheritance)
+     * in one statement, guarded by ON CONFLICT (pid) DO NOTHING on sec_user, and reads back either the inserted manager
+     * or the existing row.  An existing plain user with the same
+     * pid yields null, as findById() on the manager repository does.
+     */
+    private SecDbManager upsert(SecDbManager data) {
+        @SuppressWarnings("unchecked")
+        NativeQuery<SecDbUser> query = secEntityManager.createNativeQuery(upsertManagerSql, SecDbUser.class).unwrap(NativeQuery.class);
+        query.addSynchronizedEntityClass(SecDbUser.class);
+        query.addSynchronizedEntityClass(SecDbManager.class);
+        SecDbUserService.bindUserColumns(query, data);
+        query.setParameter("title", data.getTitle(), String.class);
+        query.setParameter("deptCode", data.getDepartmentCode(), String.class);
+        query.setParameter("subDeptOf", data.getSubDepartmentOf() == null ? null : data.getSubDepartmentOf().getPid().getBytes(), byte[].class);
+        List<SecDbUser> rows = query.getResultList();
+        if (rows.isEmpty()) {
+            return secDbManagerRepository.findById(data.getPid()).orElse(null);
+        }
+        SecDbUser row = rows.get(0);
+        return (row instanceof SecDbManager) ? (SecDbManager)row : null;
+    }
+
     @Transactional(propagation = Propagation.REQUIRED, rollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
     public SecDbManager update(SecDbManager data) {
         if (data == null) {
@@ -177,6 +641,17 @@ public class SecDbManagerService {
         SecDbManager existing = secDbManagerRepository.findById(data.getPid())
             .orElseThrow(() -> new NoResultException("SecDbManager with pid " + data.getPid() + " does not exist"));
 
+        CFLibDbKeyHash256 priorParentPid = parentPidOf(existing);
+        CFLibDbKeyHash256 parentPid = parentPidOf(data);
+        boolean moved = !Objects.equals(priorParentPid, parentPid);
+        if (moved) {
+            // Hold the closure lock across the cycle check and the relink
+            lockClosure();
+        }
+        if (moved && parentPid != null && (parentPid.equals(data.getPid()) || isUnder(parentPid, data.getPid()))) {
+            throw new RuntimeException(String.format(Inz.x("cflib.dbtest.SecDbManagerService.DepartmentCycle"), data.getPid(), parentPid));
+        }
+
         // Update fields (except pid, createdAt)
         existing.setUsername(data.getUsername());
         existing.setEmail(data.getEmail());
@@ -186,6 +661,33 @@ public class SecDbManagerService {
         // ... update other fields as needed ...
         existing.setUpdatedAt(LocalDateTime.now());
 
-        return secDbManagerRepository.save(existing);
+        SecDbManager updated = secDbManagerRepository.save(existing);
+        if (moved) {
+            // Cut the subtree loose from its old ancestors, then hang it under the new parent
+            closureUpdate(CLOSURE_DETACH_SQL).setParameter("pid", data.getPid().getBytes(), byte[].class).executeUpdate();
+            linkClosure(data.getPid(), parentPid);
+        }
+        return updated;
+    }
+
+    /**
+     * Deletes the manager with the given pid, returning false if there is no such manager.
+     * A SecDbUserRemovedEvent is published within the transaction so listeners can invalidate pid-keyed caches after
+     * the delete commits.
+     */
+    @Transactional(propagation = Propagation.REQUIRED, rollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public boolean delete(CFLibDbKeyHash256 pid) {
+        if (pid == null || pid.isNull()) {
+            throw new CFLibNullArgumentException(SecDbManagerService.class, "delete", 1, "pid");
+        }
+        SecDbManager existing = secDbManagerRepository.findById(pid).orElse(null);
+        if (existing == null) {
+            return false;
+        }
+        secDbManagerRepository.delete(existing);
+        lockClosure();
+        closureUpdate(CLOSURE_REMOVE_SQL).setParameter("pid", pid.getBytes(), byte[].class).executeUpdate();
+        applicationEventPublisher.publishEvent(new SecDbUserRemovedEvent(this, pid));
+        return true;
     }
 }
@@ -55,7 +55,11 @@ import jakarta.persistence.*;
 import jakarta.transaction.Transactional;
 
 @Entity
-@Table(name = "sec_sess", schema = "secdb")
+@Table(name = "sec_sess", schema = "secdb",
+    indexes = {
+        @Index(name = "sec_sess_dxuser", columnList = "secuser_pid, created_at", unique = false)
+    }
+)
 @Transactional(Transactional.TxType.SUPPORTS)
 @PersistenceContext(unitName = "SecDbPU")
 public class SecDbSession {
@@ -69,6 +73,7 @@ public class SecDbSession {
     private CFLibDbKeyHash256 pid;
 
     @ManyToOne(fetch = FetchType.LAZY)
+    @JoinColumn(name = "secuser_pid", nullable = false)
     @AttributeOverrides({
         @AttributeOverride(name = "bytes", column = @Column(name = "secuser_pid", nullable = false, unique = false, length = CFLibDbKeyHash256.HASH_LENGTH))
     })
@@ -147,6 +152,10 @@ public class SecDbSession {
         this.secUser = secUser;
     }
 
+    public String getSessCreateInfo() {
+        return sessCreateInfo;
+    }
+
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
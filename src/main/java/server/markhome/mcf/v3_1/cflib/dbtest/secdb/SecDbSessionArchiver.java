@@ -0,0 +1,266 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest.secdb;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTest;
+
+import org.hibernate.query.NativeQuery;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+
+/**
+ * Moves terminated sessions older than the retention window out of secdb.sec_sess into secdb.sec_sess_archive,
+ * so the hot table stays sized by the live sessions rather than by every login ever made.
+ * <p>
+ * Each batch is one DELETE ... RETURNING feeding an INSERT in its own transaction, picking its rows with
+ * FOR UPDATE SKIP LOCKED so concurrent archivers and session updates do not block each other.  The archive is range
+ * partitioned by month of created_at (secdb.sessions.archive.partitioning=monthly, the default) so old history can be
+ * detached or dropped a month at a time instead of deleted row by row.  sec_sess itself stays a plain table: its
+ * pid primary key and the ON CONFLICT (pid) create path need a unique index on pid, which PostgreSQL cannot enforce
+ * across partitions keyed by created_at.
+ * <p>
+ * The archiver only runs when secdb.sessions.archive.enabled=true and the secdb unit is on PostgreSQL.
+ */
+@Service("SecDbSessionArchiver")
+public class SecDbSessionArchiver {
+
+    public final static String ARCHIVE_TABLE = "secdb.sec_sess_archive";
+
+    private final static String ARCHIVE_COLUMNS = "pid, secuser_pid, sess_cr_info, created_at, sess_term_info, terminated_at";
+
+    private final static String ARCHIVE_BATCH_SQL =
+        "WITH moved AS ("
+        + " DELETE FROM secdb.sec_sess WHERE pid IN ("
+        + " SELECT pid FROM secdb.sec_sess WHERE terminated_at < :cutoff"
+        + " ORDER BY terminated_at LIMIT :batchSize FOR UPDATE SKIP LOCKED)"
+        + " RETURNING " + ARCHIVE_COLUMNS + ")"
+        + " INSERT INTO " + ARCHIVE_TABLE + " (" + ARCHIVE_COLUMNS + ")"
+        + " SELECT " + ARCHIVE_COLUMNS + " FROM moved";
+
+    /**
+     * The partial index the batch query selects with.  Built CONCURRENTLY, which cannot run inside a transaction, so
+     * the build does not hold the SHARE lock that would stall every login and logout on a large sec_sess.
+     */
+    private final static String TERMINATED_INDEX = "secdb.sec_sess_dxterm";
+
+    private final static String TERMINATED_INDEX_SQL =
+        "CREATE INDEX CONCURRENTLY IF NOT EXISTS sec_sess_dxterm ON secdb.sec_sess (terminated_at) WHERE terminated_at IS NOT NULL";
+
+    private final static DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+
+    @PersistenceContext(unitName = SecDbConfig.persistenceUnitName)
+    private EntityManager secEntityManager;
+
+    @Autowired
+    @Qualifier("secTransactionManager")
+    private PlatformTransactionManager secTransactionManager;
+
+    @Autowired
+    @Qualifier("secDataSource")
+    private DataSource secDataSource;
+
+    private ScheduledExecutorService scheduler;
+    private volatile boolean schemaReady = false;
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(DbTest.getMergedProperties().getProperty("secdb.sessions.archive.enabled", "false"))
+            && SecDbConfig.isPostgreSQL();
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        long intervalSeconds = Long.parseLong(DbTest.getMergedProperties().getProperty("secdb.sessions.archive.interval-seconds", "300"));
+        scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("SecDbSessionArchiver").daemon(true).factory());
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                archive();
+            }
+            catch (Throwable th) {
+                System.err.println("SecDbSessionArchiver.archive() threw " + th.getClass().getName() + " - " + th.getMessage());
+                th.printStackTrace(System.err);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Archive every session terminated more than secdb.sessions.archive.retention-days (default 30) ago, in batches
+     * of secdb.sessions.archive.batch-size (default 1000), returning the number of sessions moved.
+     */
+    public long archive() {
+        Properties merged = DbTest.getMergedProperties();
+        long retentionDays = Long.parseLong(merged.getProperty("secdb.sessions.archive.retention-days", "30"));
+        int batchSize = Integer.parseInt(merged.getProperty("secdb.sessions.archive.batch-size", "1000"));
+        return archiveTerminatedBefore(LocalDateTime.now().minusDays(retentionDays), batchSize);
+    }
+
+    public long archiveTerminatedBefore(LocalDateTime cutoff, int batchSize) {
+        ensureSchema(cutoff);
+        TransactionTemplate tx = new TransactionTemplate(secTransactionManager);
+        long total = 0L;
+        int moved;
+        do {
+            moved = tx.execute(status -> secEntityManager.createNativeQuery(ARCHIVE_BATCH_SQL)
+                .unwrap(NativeQuery.class)
+                .addSynchronizedEntityClass(SecDbSession.class)
+                .setParameter("cutoff", cutoff)
+                .setParameter("batchSize", batchSize)
+                .executeUpdate());
+            total += moved;
+        } while (moved >= batchSize && !Thread.currentThread().isInterrupted());
+        if (total > 0L) {
+            System.err.println("SecDbSessionArchiver archived " + total + " sessions terminated before " + cutoff);
+        }
+        return total;
+    }
+
+    /**
+     * Create the archive table, the partitions for sessions terminated before cutoff up to next month, and the
+     * partial index the batch query selects with, if they do not exist yet.
+     */
+    private void ensureSchema(LocalDateTime cutoff) {
+        TransactionTemplate tx = new TransactionTemplate(secTransactionManager);
+        boolean monthly = "monthly".equalsIgnoreCase(DbTest.getMergedProperties().getProperty("secdb.sessions.archive.partitioning", "monthly"));
+        if (!schemaReady) {
+            ensureTerminatedIndex();
+            tx.executeWithoutResult(status -> {
+                secEntityManager.createNativeQuery("CREATE TABLE IF NOT EXISTS " + ARCHIVE_TABLE + " ("
+                    + " pid bytea NOT NULL,"
+                    + " secuser_pid bytea NOT NULL,"
+                    + " sess_cr_info varchar(" + SecDbSession.SESS_CREATE_INFO_LEN + ") NOT NULL,"
+                    + " created_at timestamp(6) NOT NULL,"
+                    + " sess_term_info varchar(" + SecDbSession.SESS_TERMINATION_INFO_LEN + "),"
+                    + " terminated_at timestamp(6),"
+                    + " archived_at timestamp(6) NOT NULL DEFAULT now(),"
+                    + " PRIMARY KEY (pid, created_at))"
+                    + (monthly ? " PARTITION BY RANGE (created_at)" : "")).executeUpdate();
+                if (monthly) {
+                    secEntityManager.createNativeQuery("CREATE TABLE IF NOT EXISTS " + ARCHIVE_TABLE + "_default PARTITION OF " + ARCHIVE_TABLE + " DEFAULT").executeUpdate();
+                }
+                secEntityManager.createNativeQuery("CREATE INDEX IF NOT EXISTS sec_sess_archive_dxuser ON " + ARCHIVE_TABLE + " (secuser_pid, created_at)").executeUpdate();
+            });
+            schemaReady = true;
+        }
+        if (monthly) {
+            // Every month the next batches can reach needs its partition before rows land in the default one
+            LocalDateTime oldest = tx.execute(status -> (LocalDateTime) secEntityManager.createNativeQuery(
+                    "SELECT min(created_at) FROM secdb.sec_sess WHERE terminated_at < :cutoff", LocalDateTime.class)
+                .setParameter("cutoff", cutoff)
+                .getSingleResult());
+            YearMonth last = YearMonth.now().plusMonths(1);
+            YearMonth month = oldest != null ? YearMonth.from(oldest) : YearMonth.now();
+            for (; !month.isAfter(last); month = month.plusMonths(1)) {
+                ensurePartition(tx, month);
+            }
+        }
+    }
+
+    /**
+     * Builds TERMINATED_INDEX on an autocommit connection of its own.  A CONCURRENTLY build that failed part way leaves
+     * an invalid index behind, which IF NOT EXISTS would then skip, so an invalid one is dropped and rebuilt.
+     */
+    private void ensureTerminatedIndex() {
+        try (Connection connection = secDataSource.getConnection(); Statement stmt = connection.createStatement()) {
+            connection.setAutoCommit(true);
+            try (ResultSet rs = stmt.executeQuery("SELECT indisvalid FROM pg_index WHERE indexrelid = to_regclass('" + TERMINATED_INDEX + "')")) {
+                if (rs.next()) {
+                    if (rs.getBoolean(1)) {
+                        return;
+                    }
+                    stmt.execute("DROP INDEX CONCURRENTLY IF EXISTS " + TERMINATED_INDEX);
+                }
+            }
+            stmt.execute(TERMINATED_INDEX_SQL);
+        }
+        catch (SQLException e) {
+            throw new RuntimeException("SecDbSessionArchiver could not build " + TERMINATED_INDEX + " - " + e.getMessage(), e);
+        }
+    }
+
+    private void ensurePartition(TransactionTemplate tx, YearMonth month) {
+        LocalDate from = month.atDay(1);
+        LocalDate to = month.plusMonths(1).atDay(1);
+        String sql = "CREATE TABLE IF NOT EXISTS " + ARCHIVE_TABLE + "_p" + month.format(PARTITION_SUFFIX)
+            + " PARTITION OF " + ARCHIVE_TABLE + " FOR VALUES FROM ('" + from + "') TO ('" + to + "')";
+        try {
+            tx.executeWithoutResult(status -> secEntityManager.createNativeQuery(sql).executeUpdate());
+        }
+        catch (RuntimeException e) {
+            // Rows for the month already sit in the default partition; they stay there rather than failing the run
+            System.err.println("SecDbSessionArchiver could not create the " + month + " archive partition - " + e.getMessage());
+        }
+    }
+}
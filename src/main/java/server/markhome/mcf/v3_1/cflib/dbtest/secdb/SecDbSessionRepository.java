@@ -42,8 +42,89 @@
  */
 package server.markhome.mcf.v3_1.cflib.dbtest.secdb;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
 import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import jakarta.persistence.QueryHint;
 
 public interface SecDbSessionRepository extends JpaRepository<SecDbSession, CFLibDbKeyHash256> {
+    List<SecDbSession> findBySecUserPid(CFLibDbKeyHash256 secUserPid);
+    Page<SecDbSession> findBySecUserPid(CFLibDbKeyHash256 secUserPid, Pageable pageable);
+    List<SecDbSession> findBySecUserPidAndTerminatedAtIsNull(CFLibDbKeyHash256 secUserPid);
+    long countBySecUserPid(CFLibDbKeyHash256 secUserPid);
+    long countBySecUserPidAndTerminatedAtIsNull(CFLibDbKeyHash256 secUserPid);
+    boolean existsByPidAndTerminatedAtIsNull(CFLibDbKeyHash256 pid);
+
+    /**
+     * Streams (pid, secUser.pid, createdAt) of every active session without materializing entities, for loading
+     * SecDbActiveSessionIndex.  Must be consumed and closed within a transaction.
+     */
+    @QueryHints({
+        @QueryHint(name = "org.hibernate.fetchSize", value = "1000"),
+        @QueryHint(name = "org.hibernate.readOnly", value = "true")
+    })
+    @Query("select s.pid, s.secUser.pid, s.createdAt from SecDbSession s where s.terminatedAt is null")
+    Stream<Object[]> streamActive();
+
+    /**
+     * Streams every session in pid order through a server-side cursor.  Must be consumed and closed within a
+     * transaction, detaching each row once it has been used.
+     */
+    @QueryHints({
+        @QueryHint(name = "org.hibernate.fetchSize", value = "1000"),
+        @QueryHint(name = "org.hibernate.readOnly", value = "true"),
+        @QueryHint(name = "org.hibernate.cacheMode", value = "IGNORE")
+    })
+    @Query("select s from SecDbSession s order by s.pid")
+    Stream<SecDbSession> streamAll();
+
+    /**
+     * First keyset page of a user's sessions in (created_at, pid) order.
+     */
+    List<SecDbSession> findBySecUserPidOrderByCreatedAtAscPidAsc(CFLibDbKeyHash256 secUserPid, Limit limit);
+
+    /**
+     * Keyset page following the (createdAt, pid) of the last session of the previous page, walking sec_sess_dxuser
+     * with a row-value comparison instead of an OFFSET scan.
+     */
+    @Query(value = "SELECT * FROM secdb.sec_sess"
+        + " WHERE secuser_pid = :secUserPid AND (created_at, pid) > (:createdAt, :pid)"
+        + " ORDER BY created_at, pid LIMIT :limit", nativeQuery = true)
+    List<SecDbSession> findPageAfter(@Param("secUserPid") byte[] secUserPid, @Param("createdAt") LocalDateTime createdAt, @Param("pid") byte[] pid, @Param("limit") int limit);
+
+    /**
+     * Terminate every still-active session of a user in one UPDATE, returning the number of sessions terminated.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update SecDbSession s set s.sessTerminationInfo = :sessTerminationInfo, s.terminatedAt = :terminatedAt"
+        + " where s.secUser.pid = :secUserPid and s.terminatedAt is null")
+    int terminateBySecUserPid(@Param("secUserPid") CFLibDbKeyHash256 secUserPid, @Param("sessTerminationInfo") String sessTerminationInfo, @Param("terminatedAt") LocalDateTime terminatedAt);
+
+    /**
+     * Terminate every still-active session created before a point in time in one UPDATE.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update SecDbSession s set s.sessTerminationInfo = :sessTerminationInfo, s.terminatedAt = :terminatedAt"
+        + " where s.createdAt < :createdBefore and s.terminatedAt is null")
+    int terminateCreatedBefore(@Param("createdBefore") LocalDateTime createdBefore, @Param("sessTerminationInfo") String sessTerminationInfo, @Param("terminatedAt") LocalDateTime terminatedAt);
+
+    /**
+     * Terminate the still-active sessions among the given pids in one UPDATE.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update SecDbSession s set s.sessTerminationInfo = :sessTerminationInfo, s.terminatedAt = :terminatedAt"
+        + " where s.pid in :pids and s.terminatedAt is null")
+    int terminatePidsIn(@Param("pids") Collection<CFLibDbKeyHash256> pids, @Param("sessTerminationInfo") String sessTerminationInfo, @Param("terminatedAt") LocalDateTime terminatedAt);
 }
@@ -43,23 +43,31 @@
 package server.markhome.mcf.v3_1.cflib.dbtest.secdb;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import server.markhome.mcf.v3_1.cflib.CFLibDbException;
 import server.markhome.mcf.v3_1.cflib.CFLibNullArgumentException;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestBatchInserter;
 import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
 import server.markhome.mcf.v3_1.cflib.inz.Inz;
 
+import org.hibernate.query.NativeQuery;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.data.domain.Example;
-import org.springframework.data.domain.ExampleMatcher;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
 
+import jakarta.persistence.EntityManager;
 import jakarta.persistence.NoResultException;
+import jakarta.persistence.PersistenceContext;
 
 @Service("SecDbSessionService")
 public class SecDbSessionService {
@@ -68,9 +76,35 @@ public class SecDbSessionService {
     @Qualifier("secEntityManagerFactory")
     private LocalContainerEntityManagerFactoryBean secEntityManagerFactoryBean;
     
+    @PersistenceContext(unitName = SecDbConfig.persistenceUnitName)
+    private EntityManager secEntityManager;
+
     @Autowired
     private SecDbSessionRepository secDbSessionRepository;
 
+    @Autowired
+    private SecDbActiveSessionIndex secDbActiveSessionIndex;
+
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    private static final String SESSION_COLUMNS = "pid, secuser_pid, sess_cr_info, created_at, sess_term_info, terminated_at";
+
+    private static final String UPSERT_SESSION_SQL =
+        "WITH ins_sess AS ("
+        + " INSERT INTO secdb.sec_sess (" + SESSION_COLUMNS + ")"
+        + " VALUES (:pid, :secUserPid, :sessCreateInfo, :createdAt, :sessTerminationInfo, :terminatedAt)"
+        + " ON CONFLICT (pid) DO NOTHING"
+        + " RETURNING " + SESSION_COLUMNS + ")"
+        + " SELECT " + SESSION_COLUMNS + " FROM ins_sess"
+        + " UNION ALL"
+        + " SELECT " + SESSION_COLUMNS + " FROM secdb.sec_sess"
+        + " WHERE pid = :pid AND NOT EXISTS (SELECT 1 FROM ins_sess)";
+
+    private static final String TERMINATE_PIDS_SQL =
+        "UPDATE secdb.sec_sess SET sess_term_info = :sessTerminationInfo, terminated_at = :terminatedAt"
+        + " WHERE pid = ANY(:pids) AND terminated_at IS NULL";
+
     @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
     public SecDbSession find(CFLibDbKeyHash256 pid) {
         return secDbSessionRepository.findById(pid).orElse(null);
@@ -81,16 +115,70 @@ public class SecDbSessionService {
         if (user == null || user.getPid() == null || user.getPid().isNull()) {
             return null;
         }
-        SecDbSession probe = new SecDbSession();
-        probe.setSecUser(user);
+        return secDbSessionRepository.findBySecUserPid(user.getPid());
+    }
 
-        ExampleMatcher matcher = ExampleMatcher.matching()
-            .withIgnoreNullValues()
-            .withMatcher("secuser_pid", ExampleMatcher.GenericPropertyMatchers.exact());
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public Page<SecDbSession> findByUser(SecDbUser user, Pageable pageable) {
+        if (user == null || user.getPid() == null || user.getPid().isNull()) {
+            return Page.empty(pageable);
+        }
+        return secDbSessionRepository.findBySecUserPid(user.getPid(), pageable);
+    }
 
-        Example<SecDbSession> example = Example.of(probe, matcher);
+    /**
+     * Keyset paging over a user's sessions in (createdAt, pid) order.  Pass null for after to read the first page,
+     * then the last session of each page to read the next one; an empty or short page marks the end.
+     */
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public List<SecDbSession> findByUserAfter(SecDbUser user, SecDbSession after, int limit) {
+        if (user == null || user.getPid() == null || user.getPid().isNull() || limit <= 0) {
+            return new ArrayList<>();
+        }
+        if (after == null) {
+            return secDbSessionRepository.findBySecUserPidOrderByCreatedAtAscPidAsc(user.getPid(), Limit.of(limit));
+        }
+        return secDbSessionRepository.findPageAfter(user.getPid().getBytes(), after.getCreatedAt(), after.getPid().getBytes(), limit);
+    }
 
-        return secDbSessionRepository.findAll(example);
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public List<SecDbSession> findActiveByUser(SecDbUser user) {
+        if (user == null || user.getPid() == null || user.getPid().isNull()) {
+            return new ArrayList<>();
+        }
+        return secDbSessionRepository.findBySecUserPidAndTerminatedAtIsNull(user.getPid());
+    }
+
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public long countByUser(SecDbUser user) {
+        if (user == null || user.getPid() == null || user.getPid().isNull()) {
+            return 0L;
+        }
+        return secDbSessionRepository.countBySecUserPid(user.getPid());
+    }
+
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public long countActiveByUser(SecDbUser user) {
+        if (user == null || user.getPid() == null || user.getPid().isNull()) {
+            return 0L;
+        }
+        return secDbSessionRepository.countBySecUserPidAndTerminatedAtIsNull(user.getPid());
+    }
+
+    /**
+     * Whether the session exists and has not been terminated, answered from SecDbActiveSessionIndex while it holds a
+     * snapshot within its staleness bound and from secdb.sec_sess otherwise.  Deliberately not @Transactional so index
+     * hits never touch the pool.
+     */
+    public boolean isActive(CFLibDbKeyHash256 pid) {
+        if (pid == null || pid.isNull()) {
+            return false;
+        }
+        Boolean indexed = secDbActiveSessionIndex.isActive(pid);
+        if (indexed != null) {
+            return indexed.booleanValue();
+        }
+        return secDbSessionRepository.existsByPidAndTerminatedAtIsNull(pid);
     }
 
     @Transactional(propagation = Propagation.REQUIRED, rollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
@@ -102,18 +190,22 @@ public class SecDbSessionService {
         boolean generatedPid = false;
         try {
             if (data.getPid() == null) {
-                data.setPid(new CFLibDbKeyHash256(0));
+                data.setPid(SecDbConfig.getPidGenerator().next());
                 generatedPid = true;
             }
             LocalDateTime now = LocalDateTime.now();
             data.setCreatedAt(now);
 
+            if (SecDbConfig.isUpsertCreate()) {
+                return published(upsert(data));
+            }
+
             // Check if already exists
             if (data.getPid() != null && secDbSessionRepository.existsById(data.getPid())) {
-                return secDbSessionRepository.findById(data.getPid()).orElse(null);
+                return published(secDbSessionRepository.findById(data.getPid()).orElse(null));
             }
 
-            return secDbSessionRepository.save(data);
+            return published(secDbSessionRepository.save(data));
         } catch (Exception e) {
             // Remove auto-generated pid if there was an error
             if (generatedPid) {
@@ -125,6 +217,58 @@ public class SecDbSessionService {
         }
     }
 
+    /**
+     * Bulk equivalent of create(), returning the persisted sessions in input order.
+     * Pids that already exist resolve to the existing row as they do for create(), but the existence check is one
+     * IN query per JDBC batch and the inserts are flushed as ordered JDBC batches, with the persistence context
+     * cleared after each batch so memory stays bounded.  Entities the caller loaded earlier in the same transaction
+     * are detached by those clears.
+     */
+    @Transactional(propagation = Propagation.REQUIRED, rollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public List<SecDbSession> createAll(Collection<? extends SecDbSession> data) {
+        List<SecDbSession> created = new ArrayList<>(data == null ? 0 : data.size());
+        if (data == null || data.isEmpty()) {
+            return created;
+        }
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            return new DbTestBatchInserter<SecDbSession>(secEntityManager, SecDbConfig.getJdbcBatchSize(), SecDbSession::getPid, secDbSessionRepository::findAllById)
+                .prepare(session -> {
+                    if (session.getPid() == null) {
+                        session.setPid(SecDbConfig.getPidGenerator().next());
+                    }
+                    session.setCreatedAt(now);
+                })
+                .afterFlush(persisted -> persisted.forEach(this::published))
+                .insertAll(data);
+        } catch (Exception e) {
+            System.err.println(String.format(Inz.x("cflib.dbtest.SecDbSessionService.rethrow"), e.getClass().getName(), "createAll", e.getLocalizedMessage()));
+            e.printStackTrace(System.err);
+            throw new CFLibDbException(SecDbSessionService.class, "createAll", String.format(Inz.s("cflib.dbtest.SecDbSessionService.rethrow"), e.getClass().getName(), e.getMessage()), "createAll", String.format(Inz.x("cflib.dbtest.SecDbSessionService.rethrow"), e.getClass().getName(), "createAll", e.getLocalizedMessage()), e);
+        }
+    }
+
+    /**
+     * Inserts the session with INSERT ... ON CONFLICT (pid) DO NOTHING and reads back either the inserted row or the
+     * existing one in the same statement, falling back to findById() when a concurrent insert won the race.
+     */
+    private SecDbSession upsert(SecDbSession data) {
+        @SuppressWarnings("unchecked")
+        NativeQuery<SecDbSession> query = secEntityManager.createNativeQuery(UPSERT_SESSION_SQL, SecDbSession.class).unwrap(NativeQuery.class);
+        query.addSynchronizedEntityClass(SecDbSession.class);
+        query.setParameter("pid", data.getPid().getBytes(), byte[].class);
+        query.setParameter("secUserPid", data.getSecUser().getPid().getBytes(), byte[].class);
+        query.setParameter("sessCreateInfo", data.getSessCreateInfo(), String.class);
+        query.setParameter("createdAt", data.getCreatedAt(), LocalDateTime.class);
+        query.setParameter("sessTerminationInfo", data.getSessTerminationInfo(), String.class);
+        query.setParameter("terminatedAt", data.getTerminatedAt(), LocalDateTime.class);
+        List<SecDbSession> rows = query.getResultList();
+        if (rows.isEmpty()) {
+            return secDbSessionRepository.findById(data.getPid()).orElse(null);
+        }
+        return rows.get(0);
+    }
+
     @Transactional(propagation = Propagation.REQUIRED, rollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
     public SecDbSession update(SecDbSession data) {
         if (data == null) {
@@ -142,6 +286,102 @@ public class SecDbSessionService {
         existing.setSessTerminationInfo(data.getSessTerminationInfo());
         existing.setTerminatedAt(data.getTerminatedAt());
 
-        return secDbSessionRepository.save(existing);
+        return published(secDbSessionRepository.save(existing));
+    }
+
+    /**
+     * Publishes a SecDbSessionWrittenEvent for the session within the current transaction, so SecDbActiveSessionIndex
+     * picks the write up after it commits.
+     */
+    private SecDbSession published(SecDbSession session) {
+        if (session != null && session.getPid() != null) {
+            applicationEventPublisher.publishEvent(new SecDbSessionWrittenEvent(this, session));
+        }
+        return session;
+    }
+
+    /**
+     * Terminate every active session of a user ("log out everywhere") with a single UPDATE.
+     * Sessions which are already terminated keep their original termination; the result is the number newly terminated.
+     * Pending changes are flushed first and the persistence context is then cleared, so entities the caller loaded
+     * earlier in the same transaction are detached.
+     */
+    @Transactional(propagation = Propagation.REQUIRED, rollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public int terminateByUser(SecDbUser user, String sessTerminationInfo) {
+        if (user == null || user.getPid() == null || user.getPid().isNull()) {
+            throw new CFLibNullArgumentException(SecDbSessionService.class, "terminateByUser", 1, "user.pid");
+        }
+        checkTerminationInfo("terminateByUser", sessTerminationInfo);
+        int terminated = secDbSessionRepository.terminateBySecUserPid(user.getPid(), sessTerminationInfo, LocalDateTime.now());
+        applicationEventPublisher.publishEvent(SecDbSessionsTerminatedEvent.forUser(this, user.getPid()));
+        return terminated;
+    }
+
+    /**
+     * Terminate every active session created before createdBefore with a single UPDATE, returning the number terminated.
+     * Like terminateByUser(), this flushes and then clears the persistence context, detaching the caller's entities.
+     */
+    @Transactional(propagation = Propagation.REQUIRED, rollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public int terminateCreatedBefore(LocalDateTime createdBefore, String sessTerminationInfo) {
+        if (createdBefore == null) {
+            throw new CFLibNullArgumentException(SecDbSessionService.class, "terminateCreatedBefore", 1, "createdBefore");
+        }
+        checkTerminationInfo("terminateCreatedBefore", sessTerminationInfo);
+        int terminated = secDbSessionRepository.terminateCreatedBefore(createdBefore, sessTerminationInfo, LocalDateTime.now());
+        applicationEventPublisher.publishEvent(SecDbSessionsTerminatedEvent.forCreatedBefore(this, createdBefore));
+        return terminated;
+    }
+
+    /**
+     * Terminate the active sessions among pids, returning the number terminated.  On PostgreSQL this is one UPDATE
+     * matching pid = ANY of a bytea[] parameter, whatever the number of pids; elsewhere it is one UPDATE per
+     * hibernate.jdbc.batch_size pids.  Every session is stamped with the same terminatedAt.  Like terminateByUser(),
+     * this flushes and then clears the persistence context, detaching the caller's entities.
+     */
+    @Transactional(propagation = Propagation.REQUIRED, rollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public int terminate(Collection<CFLibDbKeyHash256> pids, String sessTerminationInfo) {
+        checkTerminationInfo("terminate", sessTerminationInfo);
+        if (pids == null || pids.isEmpty()) {
+            return 0;
+        }
+        List<CFLibDbKeyHash256> live = pids.stream().filter(pid -> pid != null && !pid.isNull()).toList();
+        LocalDateTime terminatedAt = LocalDateTime.now();
+        int terminated = 0;
+        if (SecDbConfig.isPostgreSQL()) {
+            terminated = terminateAny(live, sessTerminationInfo, terminatedAt);
+        }
+        else {
+            int batchSize = SecDbConfig.getJdbcBatchSize();
+            for (int from = 0; from < live.size(); from += batchSize) {
+                terminated += secDbSessionRepository.terminatePidsIn(live.subList(from, Math.min(from + batchSize, live.size())), sessTerminationInfo, terminatedAt);
+            }
+        }
+        applicationEventPublisher.publishEvent(SecDbSessionsTerminatedEvent.forPids(this, live));
+        return terminated;
+    }
+
+    private int terminateAny(List<CFLibDbKeyHash256> pids, String sessTerminationInfo, LocalDateTime terminatedAt) {
+        if (pids.isEmpty()) {
+            return 0;
+        }
+        byte[][] pidBytes = new byte[pids.size()][];
+        for (int i = 0; i < pidBytes.length; i++) {
+            pidBytes[i] = pids.get(i).getBytes();
+        }
+        NativeQuery<?> query = secEntityManager.createNativeQuery(TERMINATE_PIDS_SQL).unwrap(NativeQuery.class);
+        query.addSynchronizedEntityClass(SecDbSession.class);
+        query.setParameter("pids", pidBytes, byte[][].class);
+        query.setParameter("sessTerminationInfo", sessTerminationInfo, String.class);
+        query.setParameter("terminatedAt", terminatedAt, LocalDateTime.class);
+        secEntityManager.flush();
+        int terminated = query.executeUpdate();
+        secEntityManager.clear();
+        return terminated;
+    }
+
+    private static void checkTerminationInfo(String methName, String sessTerminationInfo) {
+        if (sessTerminationInfo == null || sessTerminationInfo.isEmpty()) {
+            throw new CFLibNullArgumentException(SecDbSessionService.class, methName, 2, "sessTerminationInfo");
+        }
     }
 }
@@ -0,0 +1,88 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest.secdb;
+
+import java.time.LocalDateTime;
+
+import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * Published by SecDbSessionService for every session it creates or updates, inside the writing secdb transaction,
+ * so SecDbActiveSessionIndex can track the session once the write commits.  The event carries a copy of the keys and
+ * timestamps rather than the entity, which may be detached by the time listeners run.
+ */
+public class SecDbSessionWrittenEvent extends ApplicationEvent {
+
+    private static final long serialVersionUID = 1L;
+
+    private final CFLibDbKeyHash256 pid;
+    private final CFLibDbKeyHash256 secUserPid;
+    private final LocalDateTime createdAt;
+    private final LocalDateTime terminatedAt;
+
+    public SecDbSessionWrittenEvent(Object source, SecDbSession session) {
+        super(source);
+        this.pid = session.getPid();
+        this.secUserPid = session.getSecUser() != null ? session.getSecUser().getPid() : null;
+        this.createdAt = session.getCreatedAt();
+        this.terminatedAt = session.getTerminatedAt();
+    }
+
+    public CFLibDbKeyHash256 getPid() {
+        return pid;
+    }
+
+    public CFLibDbKeyHash256 getSecUserPid() {
+        return secUserPid;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public LocalDateTime getTerminatedAt() {
+        return terminatedAt;
+    }
+}
@@ -45,6 +45,8 @@ package server.markhome.mcf.v3_1.cflib.dbtest.secdb;
 import jakarta.persistence.*;
 import jakarta.transaction.Transactional;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
 import org.hibernate.annotations.UpdateTimestamp;
 
 import org.hibernate.annotations.CreationTimestamp;
@@ -59,19 +61,26 @@ import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
     indexes = {
         @Index(name = "sec_user_pidx", columnList = "pid", unique = true),
         @Index(name = "sec_user_axname", columnList = "username", unique = true),
-        @Index(name = "sec_user_dxemail", columnList = "email", unique = false),
-        @Index(name = "sec_user_dxmbrdptcd", columnList = "member_deptcode", unique = false),
+        @Index(name = "sec_user_dxemailpid", columnList = "email, pid", unique = false),
+        @Index(name = "sec_user_dxmbrdptcdpid", columnList = "member_deptcode, pid", unique = false),
     }
 )
 @Inheritance(strategy = InheritanceType.JOINED)
 @DiscriminatorColumn(name = "user_type", discriminatorType = DiscriminatorType.INTEGER)
 @DiscriminatorValue("0")
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = SecDbUser.CACHE_REGION)
 @Transactional(Transactional.TxType.SUPPORTS)
 @PersistenceContext(unitName = "SecDbPU")
 public class SecDbUser implements Comparable<Object> {
     public static final int USERNAME_SIZE = 64;
     public static final int EMAIL_SIZE = 1023;
 
+    /**
+     * The second-level cache region shared by the whole SecDbUser hierarchy, SecDbManager included.
+     */
+    public static final String CACHE_REGION = "secdb.SecDbUser";
+
     @Id
     @AttributeOverrides({
         @AttributeOverride(name = "bytes", column = @Column(name = "pid", nullable = false, unique = true, length = CFLibDbKeyHash256.HASH_LENGTH))
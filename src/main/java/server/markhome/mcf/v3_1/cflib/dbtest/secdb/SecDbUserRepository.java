@@ -42,12 +42,49 @@
  */
 package server.markhome.mcf.v3_1.cflib.dbtest.secdb;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import jakarta.persistence.QueryHint;
 
 public interface SecDbUserRepository extends JpaRepository<SecDbUser, CFLibDbKeyHash256> {
+    Optional<SecDbUser> findByUsername(String username);
     List<SecDbUser> findByEmail(String email);
     List<SecDbUser> findByMemberDeptCode(String memberDeptCode);
+
+    /**
+     * First and following keyset pages of all users in username order, walking sec_user_axname.
+     */
+    List<SecDbUser> findByOrderByUsernameAsc(Limit limit);
+    List<SecDbUser> findByUsernameGreaterThanOrderByUsernameAsc(String username, Limit limit);
+
+    /**
+     * Existence probe on sec_user alone, without the sec_mgr join a JOINED-inheritance entity load or count brings in.
+     */
+    @Query(value = "SELECT EXISTS (SELECT 1 FROM secdb.sec_user WHERE pid = :pid)", nativeQuery = true)
+    boolean existsUserPid(@Param("pid") byte[] pid);
+
+    @Query("select u.pid from SecDbUser u where u.pid in :pids")
+    List<CFLibDbKeyHash256> findPidsIn(@Param("pids") Collection<CFLibDbKeyHash256> pids);
+
+    /**
+     * Streams every user (managers included) in pid order through a server-side cursor, bypassing the second-level
+     * cache.  Must be consumed and closed within a transaction, detaching each row once it has been used.
+     */
+    @QueryHints({
+        @QueryHint(name = "org.hibernate.fetchSize", value = "1000"),
+        @QueryHint(name = "org.hibernate.readOnly", value = "true"),
+        @QueryHint(name = "org.hibernate.cacheMode", value = "IGNORE")
+    })
+    @Query("select u from SecDbUser u order by u.pid")
+    Stream<SecDbUser> streamAll();
 }
@@ -42,25 +42,35 @@
  */
 package server.markhome.mcf.v3_1.cflib.dbtest.secdb;
 
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import server.markhome.mcf.v3_1.cflib.CFLibDbException;
 import server.markhome.mcf.v3_1.cflib.CFLibNullArgumentException;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestBatchInserter;
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTestKeysetPage;
 import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
 import server.markhome.mcf.v3_1.cflib.inz.Inz;
 
+import org.hibernate.query.NativeQuery;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
-import org.springframework.data.domain.Example;
-import org.springframework.data.domain.ExampleMatcher;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManager;
 import jakarta.persistence.NoResultException;
+import jakarta.persistence.PersistenceContext;
 
 @Service("SecDbUserService")
 public class SecDbUserService {
@@ -69,9 +79,67 @@ public class SecDbUserService {
     @Qualifier("secEntityManagerFactory")
     private LocalContainerEntityManagerFactoryBean secEntityManagerFactory;
     
+    @PersistenceContext(unitName = SecDbConfig.persistenceUnitName)
+    private EntityManager secEntityManager;
+
     @Autowired
     private SecDbUserRepository secDbUserRepository;
 
+    @Autowired
+    private ApplicationEventPublisher applicationEventPublisher;
+
+    /**
+     * The sec_user columns in the order the native create() statements insert and return them.
+     */
+    static final String USER_COLUMNS = "pid, user_type, username, email, created_at, created_by, updated_at, updated_by, member_deptcode";
+
+    /**
+     * The tail of the native create() statements, reading back an existing row of the SecDbUser hierarchy when the
+     * ins_user CTE inserted nothing.  Under single-table inheritance the manager columns live in sec_user, and the
+     * join is a self join on the primary key.  Built on each call from the current secdb.inheritance.
+     */
+    static String selectExistingUser() {
+        return " SELECT u.pid, u.user_type, u.username, u.email, u.created_at, u.created_by, u.updated_at, u.updated_by, u.member_deptcode,"
+            + " m.title, m.deptcode, m.subdeptof"
+            + " FROM secdb.sec_user u LEFT JOIN " + SecDbConfig.getManagerTable() + " m ON m.pid = u.pid"
+            + " WHERE u.pid = :pid AND NOT EXISTS (SELECT 1 FROM ins_user)";
+    }
+
+    /**
+     * The orders of the keyset listings, which tag their continuation tokens.
+     */
+    public final static String PAGE_ORDER_PID = "sec_user.pid";
+    public final static String PAGE_ORDER_USERNAME = "sec_user.username";
+    public final static String PAGE_ORDER_EMAIL = "sec_user.email.pid";
+    public final static String PAGE_ORDER_MEMBER_DEPTCODE = "sec_user.member_deptcode.pid";
+
+    /**
+     * The native create() statement, built by initSql() when the bean is constructed so it follows the
+     * secdb.inheritance of the context that owns the bean rather than the one loaded first.
+     */
+    private String upsertUserSql;
+
+    /**
+     * The SecDbUser hierarchy in the column layout of selectExistingUser(), for the pid ordered keyset listings.
+     * Built by initSql() alongside upsertUserSql.
+     */
+    private String selectPageUsers;
+
+    @PostConstruct
+    public void initSql() {
+        upsertUserSql = "WITH ins_user AS ("
+            + " INSERT INTO secdb.sec_user (" + USER_COLUMNS + ")"
+            + " VALUES (:pid, 0, :username, :email, :createdAt, :createdBy, :updatedAt, :updatedBy, :memberDeptCode)"
+            + " ON CONFLICT (pid) DO NOTHING"
+            + " RETURNING " + USER_COLUMNS + ")"
+            + " SELECT ins_user.*, CAST(NULL AS varchar) AS title, CAST(NULL AS varchar) AS deptcode, CAST(NULL AS bytea) AS subdeptof FROM ins_user"
+            + " UNION ALL"
+            + selectExistingUser();
+        selectPageUsers = " SELECT u.pid, u.user_type, u.username, u.email, u.created_at, u.created_by, u.updated_at, u.updated_by, u.member_deptcode,"
+            + " m.title, m.deptcode, m.subdeptof"
+            + " FROM secdb.sec_user u LEFT JOIN " + SecDbConfig.getManagerTable() + " m ON m.pid = u.pid";
+    }
+
     @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
     public SecDbUser find(CFLibDbKeyHash256 pid) {
         return secDbUserRepository.findById(pid).orElse(null);
@@ -82,16 +150,7 @@ public class SecDbUserService {
         if (name == null || name.isEmpty()) {
             return null;
         }
-        SecDbUser probe = new SecDbUser();
-        probe.setUsername(name);
-
-        ExampleMatcher matcher = ExampleMatcher.matching()
-            .withIgnoreNullValues()
-            .withMatcher("username", ExampleMatcher.GenericPropertyMatchers.exact());
-
-        Example<SecDbUser> example = Example.of(probe, matcher);
-
-        return secDbUserRepository.findOne(example).orElse(null);
+        return secDbUserRepository.findByUsername(name).orElse(null);
     }
 
     @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
@@ -110,6 +169,127 @@ public class SecDbUserService {
         return secDbUserRepository.findByMemberDeptCode(memberDeptCode);
     }
 
+    /**
+     * Keyset page of all users, managers included, in pid order.  Pass a null token for the first page and the
+     * nextToken of each page for the one after it.
+     */
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public DbTestKeysetPage<SecDbUser> findPage(String token, int limit) {
+        return findPidPage(null, null, PAGE_ORDER_PID, token, limit);
+    }
+
+    /**
+     * Keyset page of all users, managers included, in username order.
+     */
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public DbTestKeysetPage<SecDbUser> findPageOrderByName(String token, int limit) {
+        int effective = DbTestKeysetPage.effectiveLimit(limit);
+        if (effective == 0) {
+            return DbTestKeysetPage.empty();
+        }
+        List<SecDbUser> rows;
+        if (token == null) {
+            rows = secDbUserRepository.findByOrderByUsernameAsc(Limit.of(effective + 1));
+        }
+        else {
+            String after = new String(DbTestKeysetPage.decodeToken(PAGE_ORDER_USERNAME, token, 1)[0], StandardCharsets.UTF_8);
+            rows = secDbUserRepository.findByUsernameGreaterThanOrderByUsernameAsc(after, Limit.of(effective + 1));
+        }
+        return DbTestKeysetPage.of(rows, effective, PAGE_ORDER_USERNAME, u -> new byte[][] { u.getUsername().getBytes(StandardCharsets.UTF_8) });
+    }
+
+    /**
+     * Keyset page of the users sharing an email, in pid order, walking sec_user_dxemailpid (email, pid).
+     */
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public DbTestKeysetPage<SecDbUser> findPageByEmail(String email, String token, int limit) {
+        if (email == null || email.isEmpty()) {
+            return DbTestKeysetPage.empty();
+        }
+        return findPidPage("email", email, PAGE_ORDER_EMAIL, token, limit);
+    }
+
+    /**
+     * Keyset page of the members of a department, in pid order, walking sec_user_dxmbrdptcdpid (member_deptcode, pid).
+     */
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public DbTestKeysetPage<SecDbUser> findPageByMemberDeptCode(String memberDeptCode, String token, int limit) {
+        if (memberDeptCode == null || memberDeptCode.isEmpty()) {
+            return DbTestKeysetPage.empty();
+        }
+        return findPidPage("member_deptcode", memberDeptCode, PAGE_ORDER_MEMBER_DEPTCODE, token, limit);
+    }
+
+    /**
+     * Reads a pid ordered keyset page with one native query, optionally restricted to the rows whose column equals
+     * value, in which case the token is scoped to value.  The column name is always one of this class's constants,
+     * never caller input.
+     */
+    private DbTestKeysetPage<SecDbUser> findPidPage(String column, String value, String order, String token, int limit) {
+        int effective = DbTestKeysetPage.effectiveLimit(limit);
+        if (effective == 0) {
+            return DbTestKeysetPage.empty();
+        }
+        String tag = column == null ? order : DbTestKeysetPage.scope(order, value);
+        byte[] after = token == null ? null : DbTestKeysetPage.decodeToken(tag, token, 1)[0];
+        StringBuilder sql = new StringBuilder(selectPageUsers);
+        String conj = " WHERE ";
+        if (column != null) {
+            sql.append(conj).append("u.").append(column).append(" = :value");
+            conj = " AND ";
+        }
+        if (after != null) {
+            sql.append(conj).append("u.pid > :after");
+        }
+        sql.append(" ORDER BY u.pid LIMIT :limit");
+        @SuppressWarnings("unchecked")
+        NativeQuery<SecDbUser> query = secEntityManager.createNativeQuery(sql.toString(), SecDbUser.class).unwrap(NativeQuery.class);
+        query.addSynchronizedEntityClass(SecDbUser.class);
+        if (column != null) {
+            query.setParameter("value", value, String.class);
+        }
+        if (after != null) {
+            query.setParameter("after", after, byte[].class);
+        }
+        query.setParameter("limit", effective + 1, Integer.class);
+        return DbTestKeysetPage.of(query.getResultList(), effective, tag, u -> new byte[][] { u.getPid().getBytes() });
+    }
+
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public boolean exists(CFLibDbKeyHash256 pid) {
+        if (pid == null || pid.isNull()) {
+            return false;
+        }
+        return secDbUserRepository.existsUserPid(pid.getBytes());
+    }
+
+    /**
+     * Returns the subset of the given pids that identify existing users, selecting only the pid column in one IN query per JDBC batch.
+     */
+    @Transactional(propagation = Propagation.REQUIRED, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public Set<CFLibDbKeyHash256> findExistingPids(Collection<CFLibDbKeyHash256> pids) {
+        Set<CFLibDbKeyHash256> existing = new HashSet<>();
+        if (pids == null || pids.isEmpty()) {
+            return existing;
+        }
+        int batchSize = SecDbConfig.getJdbcBatchSize();
+        List<CFLibDbKeyHash256> batch = new ArrayList<>(batchSize);
+        for (CFLibDbKeyHash256 pid : pids) {
+            if (pid == null || pid.isNull()) {
+                continue;
+            }
+            batch.add(pid);
+            if (batch.size() >= batchSize) {
+                existing.addAll(secDbUserRepository.findPidsIn(batch));
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            existing.addAll(secDbUserRepository.findPidsIn(batch));
+        }
+        return existing;
+    }
+
     @Transactional(propagation = Propagation.REQUIRED, rollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
     public SecDbUser create(SecDbUser data) {
         if (data == null) {
@@ -119,13 +299,17 @@ public class SecDbUserService {
         boolean generatedPid = false;
         try {
             if (data.getPid() == null) {
-                data.setPid(new CFLibDbKeyHash256(0));
+                data.setPid(SecDbConfig.getPidGenerator().next());
                 generatedPid = true;
             }
             LocalDateTime now = LocalDateTime.now();
             data.setCreatedAt(now);
             data.setUpdatedAt(now);
 
+            if (SecDbConfig.isUpsertCreate()) {
+                return upsert(data);
+            }
+
             // Check if already exists
             if (data.getPid() != null && secDbUserRepository.existsById(data.getPid())) {
                 return secDbUserRepository.findById(data.getPid()).orElse(null);
@@ -143,6 +327,68 @@ public class SecDbUserService {
         }
     }
 
+    /**
+     * Bulk equivalent of create(), returning the persisted users in input order.
+     * Pids that already exist resolve to the existing row as they do for create(), but the existence check is one
+     * IN query per JDBC batch and the inserts are flushed as ordered JDBC batches, with the persistence context
+     * cleared after each batch so memory stays bounded.  Entities the caller loaded earlier in the same transaction
+     * are detached by those clears.
+     */
+    @Transactional(propagation = Propagation.REQUIRED, rollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public List<SecDbUser> createAll(Collection<? extends SecDbUser> data) {
+        List<SecDbUser> created = new ArrayList<>(data == null ? 0 : data.size());
+        if (data == null || data.isEmpty()) {
+            return created;
+        }
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            return new DbTestBatchInserter<SecDbUser>(secEntityManager, SecDbConfig.getJdbcBatchSize(), SecDbUser::getPid, secDbUserRepository::findAllById)
+                .prepare(user -> {
+                    if (user.getPid() == null) {
+                        user.setPid(SecDbConfig.getPidGenerator().next());
+                    }
+                    user.setCreatedAt(now);
+                    user.setUpdatedAt(now);
+                })
+                .insertAll(data);
+        } catch (Exception e) {
+            System.err.println(String.format(Inz.x("cflib.dbtest.SecDbUserService.rethrow"), e.getClass().getName(), "createAll", e.getLocalizedMessage()));
+            e.printStackTrace(System.err);
+            throw new CFLibDbException(SecDbUserService.class, "createAll", String.format(Inz.s("cflib.dbtest.SecDbUserService.rethrow"), e.getClass().getName(), e.getMessage()), "createAll", String.format(Inz.x("cflib.dbtest.SecDbUserService.rethrow"), e.getClass().getName(), "createAll", e.getLocalizedMessage()), e);
+        }
+    }
+
+    /**
+     * Inserts the user with INSERT ... ON CONFLICT (pid) DO NOTHING and reads back either the inserted row or the
+     * existing one in the same statement.  The read-back runs against the statement snapshot, so a conflicting row
+     * committed by a concurrent transaction is not visible to it; that rare case falls back to findById().
+     */
+    private SecDbUser upsert(SecDbUser data) {
+        @SuppressWarnings("unchecked")
+        NativeQuery<SecDbUser> query = secEntityManager.createNativeQuery(upsertUserSql, SecDbUser.class).unwrap(NativeQuery.class);
+        query.addSynchronizedEntityClass(SecDbUser.class);
+        bindUserColumns(query, data);
+        List<SecDbUser> rows = query.getResultList();
+        if (rows.isEmpty()) {
+            return secDbUserRepository.findById(data.getPid()).orElse(null);
+        }
+        return rows.get(0);
+    }
+
+    /**
+     * Binds the sec_user named parameters shared by the native create() statements of users and managers.
+     */
+    static void bindUserColumns(NativeQuery<?> query, SecDbUser data) {
+        query.setParameter("pid", data.getPid().getBytes(), byte[].class);
+        query.setParameter("username", data.getUsername(), String.class);
+        query.setParameter("email", data.getEmail(), String.class);
+        query.setParameter("createdAt", data.getCreatedAt(), LocalDateTime.class);
+        query.setParameter("createdBy", data.getCreatedBy() == null ? null : data.getCreatedBy().getBytes(), byte[].class);
+        query.setParameter("updatedAt", data.getUpdatedAt(), LocalDateTime.class);
+        query.setParameter("updatedBy", data.getUpdatedBy() == null ? null : data.getUpdatedBy().getBytes(), byte[].class);
+        query.setParameter("memberDeptCode", data.getMemberDeptCode(), String.class);
+    }
+
     @Transactional(propagation = Propagation.REQUIRED, rollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
     public SecDbUser update(SecDbUser data) {
         if (data == null) {
@@ -165,4 +411,23 @@ public class SecDbUserService {
 
         return secDbUserRepository.save(existing);
     }
+
+    /**
+     * Deletes the user with the given pid, returning false if there is no such user.
+     * A SecDbUserRemovedEvent is published within the transaction so listeners can invalidate pid-keyed caches after
+     * the delete commits.
+     */
+    @Transactional(propagation = Propagation.REQUIRED, rollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
+    public boolean delete(CFLibDbKeyHash256 pid) {
+        if (pid == null || pid.isNull()) {
+            throw new CFLibNullArgumentException(SecDbUserService.class, "delete", 1, "pid");
+        }
+        SecDbUser existing = secDbUserRepository.findById(pid).orElse(null);
+        if (existing == null) {
+            return false;
+        }
+        secDbUserRepository.delete(existing);
+        applicationEventPublisher.publishEvent(new SecDbUserRemovedEvent(this, pid));
+        return true;
+    }
 }
@@ -0,0 +1,378 @@
+/*
+ *	Mark's Code Fractal CFLib DbTest 3.1 Database Test and Prototyping
+ *	
+ *	Copyright 2016-2026 Mark Stephen Sobkow
+ *
+ *	CFLib DbTest was used to exercise and prototype the use of the various database types
+ *	in CFLib DbUtil, and to prototype the multi-JPA repository framework needed for the
+ *	Code Fractal vision of how code should be structured.
+ *
+ *	These files are part of Mark's Code Fractal CFLib DbTest.
+ *
+ *	Mark's Code Fractal CFLib DbTest is available under dual commercial license from
+ *	Mark Stephen Sobkow, or under the terms of the GNU Library General Public License,
+ *	Version 3 or later with static linking exception.
+ *
+ *	As a special exception, Mark Sobkow gives you permission to link this library
+ *	with independent modules to produce an executable, provided that none of them
+ *	conflict with the intent of the LGPLv3; that is, you are not allowed to invoke
+ *	the methods of this library from non-LGPLv3-compatibly licensed code.  That said,
+ *	code which does not rely on this library is free to specify whatever license its
+ *	authors decide to use. Mark Sobkow specifically rejects the infectious nature of
+ *	the LGPLv3, and considers the mere act of including LGPLv3 modules in an
+ *	executable to be perfectly reasonable given tools like modern Java's single-jar
+ *	deployment options.
+ *
+ *	Mark's Code Fractal CFLib DbTest is free software: you can redistribute it and/or
+ *	modify it under the terms of the GNU Library General Public License as published by
+ *	the Free Software Foundation, either version 3 of the License, or
+ *	(at your option) any later version.
+ *
+ *	Mark's Code Fractal CFLib DbTest is distributed in the hope that it will be useful,
+ *	but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *	MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *	GNU Library General Public License for more details.
+ *
+ *	You should have received a copy of the GNU Library General Public License
+ *	along with Mark's Code Fractal CFLib DbTest.  If not, see &lt;https://www.gnu.org/licenses/&gt;.
+ *
+ *	If you wish to modify and use this code without publishing your changes in order to
+ *	tie it to proprietary code, please contact Mark Stephen Sobkow
+ *	for a commercial license at mark.sobkow@gmail.com
+ */
+package server.markhome.mcf.v3_1.cflib.dbtest.spring;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTest;
+import server.markhome.mcf.v3_1.cflib.dbtest.appdb.AppDbAddress;
+import server.markhome.mcf.v3_1.cflib.dbtest.appdb.AppDbAddressService;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbManager;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbManagerService;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbSession;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbSessionService;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbUser;
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbUserService;
+import server.markhome.mcf.v3_1.cflib.dbutil.CFLibDbKeyHash256;
+
+/**
+ * The dbtest.mode=loadgen workload: a weighted mix of secdb and appdb operations driven by loadgen.workers threads
+ * for loadgen.duration seconds, or until loadgen.operations operations have completed.
+ * <p>
+ * The mix is a comma separated list of operation=weight pairs from createUser, createManager, createSession,
+ * terminateSession, findAddress and updateAddress.  Latencies are recorded per operation in HdrHistograms;
+ * the first loadgen.warmup seconds are run but not reported.  The report is printed as a table, and written as JSON
+ * to loadgen.output.json (or printed to standard output when that is unset).
+ */
+@Component
+public class DbTestLoadGenerator {
+
+    public final static String DEFAULT_MIX = "createUser=5,createManager=1,createSession=30,terminateSession=20,findAddress=34,updateAddress=10";
+
+    private final static CFLibDbKeyHash256 SYSTEM_PID = new CFLibDbKeyHash256("fedcba9876543210");
+
+    private enum Operation {
+        CREATE_USER("createUser"),
+        CREATE_MANAGER("createManager"),
+        CREATE_SESSION("createSession"),
+        TERMINATE_SESSION("terminateSession"),
+        FIND_ADDRESS("findAddress"),
+        UPDATE_ADDRESS("updateAddress");
+
+        final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+
+        static Operation fromLabel(String label) {
+            for (Operation op : values()) {
+                if (op.label.equals(label)) {
+                    return op;
+                }
+            }
+            throw new RuntimeException("Unknown loadgen.mix operation \"" + label + "\"");
+        }
+    }
+
+    private static final class OperationStats {
+        final Recorder recorder = new Recorder(3);
+        final AtomicLong errors = new AtomicLong(0L);
+        final AtomicBoolean errorLogged = new AtomicBoolean(false);
+        Histogram histogram;
+    }
+
+    @Autowired
+    private SecDbUserService secDbUserService;
+
+    @Autowired
+    private SecDbManagerService secDbManagerService;
+
+    @Autowired
+    private SecDbSessionService secDbSessionService;
+
+    @Autowired
+    private AppDbAddressService appDbAddressService;
+
+    private final AtomicLong sequence = new AtomicLong(0L);
+    private final ConcurrentLinkedQueue<SecDbSession> openSessions = new ConcurrentLinkedQueue<>();
+    private String runTag;
+    private SecDbUser[] users;
+    private AppDbAddress[] addresses;
+
+    /**
+     * Whether dbtest.mode=loadgen, in which StartupListener runs this generator instead of the one-shot tests.
+     */
+    public static boolean isLoadGenMode() {
+        return "loadgen".equalsIgnoreCase(DbTest.getMergedProperties().getProperty("dbtest.mode"));
+    }
+
+    public String run() throws InterruptedException {
+        Properties merged = DbTest.getMergedProperties();
+        int workers = Integer.parseInt(merged.getProperty("loadgen.workers", "16"));
+        long durationSeconds = Long.parseLong(merged.getProperty("loadgen.duration", "60"));
+        long operations = Long.parseLong(merged.getProperty("loadgen.operations", "0"));
+        long warmupSeconds = Long.parseLong(merged.getProperty("loadgen.warmup", "10"));
+        int seedUsers = Integer.parseInt(merged.getProperty("loadgen.seed-users", "1000"));
+        String mix = merged.getProperty("loadgen.mix", DEFAULT_MIX);
+        String jsonOutput = merged.getProperty("loadgen.output.json");
+
+        Operation[] schedule = parseMix(mix);
+        seed(seedUsers);
+
+        OperationStats[] stats = new OperationStats[Operation.values().length];
+        for (int i = 0; i < stats.length; i++) {
+            stats[i] = new OperationStats();
+        }
+        AtomicLong remaining = new AtomicLong(operations > 0 ? operations : Long.MAX_VALUE);
+        long deadline = operations > 0 ? Long.MAX_VALUE : System.nanoTime() + (warmupSeconds + durationSeconds) * 1000000000L;
+        AtomicBoolean measuring = new AtomicBoolean(warmupSeconds <= 0);
+
+        System.err.println("DbTestLoadGenerator: " + workers + " workers, "
+            + (operations > 0 ? operations + " operations" : durationSeconds + " s") + " after " + warmupSeconds + " s warmup, mix " + mix);
+        List<Thread> threads = new ArrayList<>(workers);
+        for (int w = 0; w < workers; w++) {
+            threads.add(Thread.ofPlatform().name("loadgen-" + w).start(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+                    if (measuring.get() && remaining.decrementAndGet() < 0) {
+                        break;
+                    }
+                    Operation op = schedule[random.nextInt(schedule.length)];
+                    SecDbSession open = null;
+                    if (op == Operation.TERMINATE_SESSION) {
+                        open = openSessions.poll();
+                        if (open == null) {
+                            // Nothing to terminate yet, so log in instead
+                            op = Operation.CREATE_SESSION;
+                        }
+                    }
+                    long start = System.nanoTime();
+                    try {
+                        perform(op, open);
+                        stats[op.ordinal()].recorder.recordValue(System.nanoTime() - start);
+                    }
+                    catch (RuntimeException e) {
+                        stats[op.ordinal()].errors.incrementAndGet();
+                        if (stats[op.ordinal()].errorLogged.compareAndSet(false, true)) {
+                            System.err.println("DbTestLoadGenerator: first " + op.label + " error, later ones are only counted - "
+                                + e.getClass().getName() + ": " + e.getMessage());
+                            e.printStackTrace(System.err);
+                        }
+                    }
+                }
+            }));
+        }
+
+        if (warmupSeconds > 0) {
+            Thread.sleep(warmupSeconds * 1000L);
+            for (OperationStats s : stats) {
+                s.recorder.reset();
+                s.errors.set(0L);
+            }
+            measuring.set(true);
+            System.err.println("DbTestLoadGenerator: warmup complete, measuring");
+        }
+        long measureStart = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsedSeconds = (System.nanoTime() - measureStart) / 1e9;
+        for (OperationStats s : stats) {
+            s.histogram = s.recorder.getIntervalHistogram();
+        }
+
+        String table = formatTable(stats, elapsedSeconds);
+        System.err.print(table);
+        String json = formatJson(stats, elapsedSeconds, workers, mix);
+        if (jsonOutput != null && !jsonOutput.isEmpty()) {
+            try (Writer out = new FileWriter(jsonOutput)) {
+                out.write(json);
+            }
+            catch (IOException e) {
+                System.err.println("DbTestLoadGenerator could not write \"" + jsonOutput + "\" - " + e.getMessage());
+            }
+        }
+        else {
+            System.out.println(json);
+        }
+        return table;
+    }
+
+    /**
+     * Expand the operation=weight mix into a schedule which uniform picks draw from in proportion to the weights.
+     */
+    private static Operation[] parseMix(String mix) {
+        List<Operation> schedule = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] pair = entry.trim().split("=");
+            if (pair.length != 2) {
+                throw new RuntimeException("Malformed loadgen.mix entry \"" + entry + "\"; expected operation=weight");
+            }
+            Operation op = Operation.fromLabel(pair[0].trim());
+            int weight = Integer.parseInt(pair[1].trim());
+            for (int i = 0; i < weight; i++) {
+                schedule.add(op);
+            }
+        }
+        if (schedule.isEmpty()) {
+            throw new RuntimeException("loadgen.mix \"" + mix + "\" has no weighted operations");
+        }
+        return schedule.toArray(new Operation[schedule.size()]);
+    }
+
+    private void seed(int seedUsers) {
+        runTag = Long.toString(System.currentTimeMillis(), 36);
+        LocalDateTime now = LocalDateTime.now();
+        List<SecDbUser> newUsers = new ArrayList<>(seedUsers);
+        for (int i = 0; i < seedUsers; i++) {
+            newUsers.add(newUser("lu" + runTag + "-" + i, now));
+        }
+        List<SecDbUser> seededUsers = secDbUserService.createAll(newUsers);
+        users = seededUsers.toArray(new SecDbUser[seededUsers.size()]);
+        List<AppDbAddress> newAddresses = new ArrayList<>(users.length);
+        for (SecDbUser user : users) {
+            newAddresses.add(new AppDbAddress(null, user.getPid(), "Home", "Load Contact", null, "1 Load Street", null, "Yorkton", "SK", "Canada", "S3N 0X3",
+                now, SYSTEM_PID, now, SYSTEM_PID));
+        }
+        List<AppDbAddress> seededAddresses = appDbAddressService.createAll(newAddresses);
+        addresses = seededAddresses.toArray(new AppDbAddress[seededAddresses.size()]);
+        System.err.println("DbTestLoadGenerator: seeded " + users.length + " users and " + addresses.length + " addresses tagged " + runTag);
+    }
+
+    private static SecDbUser newUser(String username, LocalDateTime now) {
+        return new SecDbUser(null, username, username + "@loadgen.dbtest", "1", now, SYSTEM_PID, now, SYSTEM_PID);
+    }
+
+    private static <T> T pick(T[] values) {
+        return values[ThreadLocalRandom.current().nextInt(values.length)];
+    }
+
+    /**
+     * Perform one operation.  terminateSession terminates open, which the caller has already taken from the open
+     * sessions; when there was none left it performs createSession instead, so errors are charged to the operation
+     * actually attempted.
+     */
+    private void perform(Operation op, SecDbSession open) {
+        LocalDateTime now = LocalDateTime.now();
+        switch (op) {
+            case CREATE_USER:
+                secDbUserService.create(newUser("lc" + runTag + "-" + sequence.incrementAndGet(), now));
+                return;
+            case CREATE_MANAGER: {
+                String name = "lm" + runTag + "-" + sequence.incrementAndGet();
+                secDbManagerService.create(new SecDbManager(null, name, name + "@loadgen.dbtest", "1", "Load Manager", "ld" + name,
+                    null, null, now, SYSTEM_PID, now, SYSTEM_PID));
+                return;
+            }
+            case TERMINATE_SESSION:
+                secDbSessionService.update(new SecDbSession(open.getPid(), open.getSecUser(), open.getSessCreateInfo(), open.getCreatedAt(),
+                    "Load logout", now));
+                return;
+            case CREATE_SESSION: {
+                SecDbSession session = secDbSessionService.create(new SecDbSession(null, pick(users), "Load login", now));
+                if (session != null) {
+                    openSessions.offer(session);
+                }
+                return;
+            }
+            case FIND_ADDRESS: {
+                AppDbAddress seed = pick(addresses);
+                appDbAddressService.findByRefUIDName(seed.getRefUID(), seed.getAddressName());
+                return;
+            }
+            case UPDATE_ADDRESS: {
+                AppDbAddress seed = pick(addresses);
+                appDbAddressService.update(new AppDbAddress(seed.getPid(), seed.getRefUID(), seed.getAddressName(),
+                    "Load Contact " + sequence.incrementAndGet(), null, "1 Load Street", null, "Yorkton", "SK", "Canada", "S3N 0X3",
+                    seed.getCreatedAt(), seed.getCreatedBy(), now, SYSTEM_PID));
+                return;
+            }
+            default:
+                throw new IllegalStateException("Unhandled operation " + op);
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static String formatTable(OperationStats[] stats, double elapsedSeconds) {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.ROOT, "%-18s %10s %8s %10s %9s %9s %9s %9s %9s%n",
+            "operation", "count", "errors", "ops/s", "p50 ms", "p95 ms", "p99 ms", "p999 ms", "max ms"));
+        long total = 0L;
+        for (Operation op : Operation.values()) {
+            OperationStats s = stats[op.ordinal()];
+            Histogram h = s.histogram;
+            total += h.getTotalCount();
+            out.append(String.format(Locale.ROOT, "%-18s %10d %8d %10.1f %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+                op.label, h.getTotalCount(), s.errors.get(), h.getTotalCount() / elapsedSeconds,
+                millis(h.getValueAtPercentile(50.0)), millis(h.getValueAtPercentile(95.0)), millis(h.getValueAtPercentile(99.0)),
+                millis(h.getValueAtPercentile(99.9)), millis(h.getMaxValue())));
+        }
+        out.append(String.format(Locale.ROOT, "%-18s %10d %8s %10.1f   over %.1f s%n", "total", total, "", total / elapsedSeconds, elapsedSeconds));
+        return out.toString();
+    }
+
+    private static String formatJson(OperationStats[] stats, double elapsedSeconds, int workers, String mix) {
+        StringBuilder out = new StringBuilder();
+        out.append("{\n");
+        out.append("  \"timestamp\": \"").append(Instant.now()).append("\",\n");
+        out.append("  \"workers\": ").append(workers).append(",\n");
+        out.append("  \"mix\": \"").append(mix.replace("\\", "\\\\").replace("\"", "\\\"")).append("\",\n");
+        out.append(String.format(Locale.ROOT, "  \"elapsedSeconds\": %.3f,%n", elapsedSeconds));
+        out.append("  \"operations\": {");
+        String separator = "\n";
+        for (Operation op : Operation.values()) {
+            OperationStats s = stats[op.ordinal()];
+            Histogram h = s.histogram;
+            out.append(separator);
+            out.append(String.format(Locale.ROOT,
+                "    \"%s\": { \"count\": %d, \"errors\": %d, \"opsPerSecond\": %.3f, \"p50Ms\": %.3f, \"p95Ms\": %.3f, \"p99Ms\": %.3f, \"p999Ms\": %.3f, \"maxMs\": %.3f }",
+                op.label, h.getTotalCount(), s.errors.get(), h.getTotalCount() / elapsedSeconds,
+                millis(h.getValueAtPercentile(50.0)), millis(h.getValueAtPercentile(95.0)), millis(h.getValueAtPercentile(99.0)),
+                millis(h.getValueAtPercentile(99.9)), millis(h.getMaxValue())));
+            separator = ",\n";
+        }
+        out.append("\n  }\n}\n");
+        return out.toString();
+    }
+}
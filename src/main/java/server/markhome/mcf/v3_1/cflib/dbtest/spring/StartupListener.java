@@ -42,11 +42,22 @@
  */
 package server.markhome.mcf.v3_1.cflib.dbtest.spring;
 
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.time.Instant;
+import java.util.Properties;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.SpringApplication;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
+import server.markhome.mcf.v3_1.cflib.dbtest.DbTest;
+
 @Component
 public class StartupListener {
 
@@ -58,8 +69,29 @@ public class StartupListener {
     // @Qualifier("TestAppDb")
     private TestAppDb testAppDb;
 
+    @Autowired
+    private DbTestLoadGenerator loadGenerator;
+
     @EventListener
     public void onApplicationReady(ApplicationReadyEvent event) {
+        long readyMillis = event.getTimeTaken() != null ? event.getTimeTaken().toMillis() : -1L;
+        long uptimeAtReadyMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        long workloadStart = System.nanoTime();
+
+        if (DbTestLoadGenerator.isLoadGenMode()) {
+            int exitCode = 0;
+            try {
+                loadGenerator.run();
+            }
+            catch (Throwable th) {
+                System.err.println("loadGenerator.run() threw " + th.getClass().getCanonicalName() + " - " + th.getMessage());
+                th.printStackTrace(System.err);
+                exitCode = 1;
+            }
+            System.err.println("DbTest load generation complete.");
+            int contextExitCode = SpringApplication.exit(event.getApplicationContext());
+            System.exit(exitCode != 0 ? exitCode : contextExitCode);
+        }
 
         System.err.println("Executing testSecDb.performTests()");
         try {
@@ -92,5 +124,51 @@ public class StartupListener {
         }
 
         System.err.println("DbTest StartupListener tests complete.");
+
+        long workloadMillis = (System.nanoTime() - workloadStart) / 1000000L;
+        reportStartupTimings(readyMillis, uptimeAtReadyMillis, workloadMillis);
+
+        // A training run exits once the workload has loaded and linked everything, so the JVM writes its AOT cache
+        if (isTrainingMode()) {
+            System.err.println("DbTest training run complete; exiting so the JVM can write its AOT cache.");
+            System.exit(SpringApplication.exit(event.getApplicationContext()));
+        }
+    }
+
+    /**
+     * Whether dbtest.mode=training, the mode the aot profile uses to record the AOT cache from this workload.
+     */
+    public static boolean isTrainingMode() {
+        return "training".equalsIgnoreCase(DbTest.getMergedProperties().getProperty("dbtest.mode"));
+    }
+
+    /**
+     * Print the startup timings, and append them as a CSV row to dbtest.startup.timings-file when that is set,
+     * so runs with and without an AOT cache can be compared.
+     */
+    private void reportStartupTimings(long readyMillis, long uptimeAtReadyMillis, long workloadMillis) {
+        RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+        String cache = "none";
+        for (String arg : runtime.getInputArguments()) {
+            if (arg.startsWith("-XX:AOTCache=") || arg.startsWith("-XX:SharedArchiveFile=")) {
+                cache = "use";
+            }
+            else if (arg.startsWith("-XX:AOTCacheOutput=") || arg.startsWith("-XX:ArchiveClassesAtExit=")) {
+                cache = "train";
+            }
+        }
+        System.err.println("DbTest startup timings: context ready in " + readyMillis + " ms, JVM uptime at ready " + uptimeAtReadyMillis
+            + " ms, workload " + workloadMillis + " ms, AOT cache " + cache);
+
+        Properties merged = DbTest.getMergedProperties();
+        String timingsFile = merged.getProperty("dbtest.startup.timings-file");
+        if (timingsFile != null && !timingsFile.isEmpty()) {
+            try (PrintWriter out = new PrintWriter(new FileWriter(timingsFile, true))) {
+                out.println(Instant.now() + "," + cache + "," + readyMillis + "," + uptimeAtReadyMillis + "," + workloadMillis);
+            }
+            catch (IOException e) {
+                System.err.println("DbTest could not append startup timings to \"" + timingsFile + "\" - " + e.getMessage());
+            }
+        }
     }
 }
@@ -45,6 +45,7 @@ package server.markhome.mcf.v3_1.cflib.dbtest.spring;
 import java.time.LocalDateTime;
 import java.util.List;
 
+import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbCacheService;
 import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbManager;
 import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbManagerService;
 import server.markhome.mcf.v3_1.cflib.dbtest.secdb.SecDbSession;
@@ -77,6 +78,9 @@ public class TestSecDb {
 
     @Autowired
     private SecDbSessionService secDbSessionService;
+
+    @Autowired
+    private SecDbCacheService secDbCacheService;
     
     @Transactional(propagation = Propagation.REQUIRES_NEW, noRollbackFor = NoResultException.class, transactionManager = "secTransactionManager")
     // @PersistenceContext(unitName = "SecDbPU")
@@ -115,16 +119,16 @@ public class TestSecDb {
                 String msg = "INFO: Sample SecDbUser 'admin' 0123456789abcdef updated, update stamp is " + user.getUpdatedAt().toString() + "\n";
                 responseMessage.append(msg);
             }
-            List<SecDbSession> managerSessions = secDbSessionService.findByUser(manager);
-            if (managerSessions == null || managerSessions.isEmpty()) {
+            long managerSessionCount = secDbSessionService.countByUser(manager);
+            if (managerSessionCount == 0L) {
                 SecDbSession sess = new SecDbSession(mgrpid, manager, "System initialization", now, null, null);
                 sess = secDbSessionService.create(sess);
                 String msg = "INFO Priming SecDbSession " + sess.getPid().toString() + " for system initialization created\n";
                 responseMessage.append(msg);
             }
             else {
-                if (managerSessions.size() == 1) {
-                    SecDbSession sess = managerSessions.get(0);
+                if (managerSessionCount == 1L) {
+                    SecDbSession sess = secDbSessionService.findByUserAfter(manager, null, 1).get(0);
                     if (sess.getTerminatedAt() == null) {
                         sess.setTerminatedAt(now);
                         sess.setSessTerminationInfo("First rerun auto-terminates the initialization session");
@@ -153,6 +157,7 @@ public class TestSecDb {
                 em.close();
             }
         }
+        responseMessage.append("INFO: " + secDbCacheService.getUserRegionSummary() + "\n");
         return responseMessage.toString();
     }
 }